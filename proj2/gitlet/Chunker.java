@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Content-defined chunking of large files. A gear hash rolls over the bytes of
+ *  the file, and a chunk ends wherever the top bits of the hash are all zero,
+ *  so boundaries depend only on the last 64 bytes read: an edit moves the
+ *  boundaries near it and leaves every other chunk of the file the same.
+ *  Chunks are between MIN_CHUNK and MAX_CHUNK bytes, about AVERAGE_CHUNK on
+ *  average. A chunked blob is stored as a manifest listing its chunks,
+ *      chunk count (int), then per chunk raw chunk id (20 bytes) | length (int)
+ *  and each chunk is stored as an ordinary blob, once however many files use it.
+ *  @author Sophia Xia
+ */
+class Chunker {
+
+    static final int MIN_CHUNK = 1 << 14;
+
+    static final int AVERAGE_CHUNK = 1 << 16;
+
+    static final int MAX_CHUNK = 1 << 18;
+
+    /** A boundary is where these bits of the hash are zero, one in AVERAGE_CHUNK. */
+    private static final long MASK = -1L << (64 - Integer.numberOfTrailingZeros(AVERAGE_CHUNK));
+
+    private static final int ENTRY = RAW_UID_LENGTH + 4;
+
+    /** Random value of each byte. Fixed, so that boundaries never change. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final InputStream in;
+
+    private final byte[] buffer = new byte[STREAM_BUFFER];
+
+    private int position;
+
+    private int limit;
+
+    /** Creates a chunker over the bytes of IN, which it reads from but does not close. */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Returns the next chunk, or null at the end of the input. */
+    byte[] next() throws IOException {
+        byte[] chunk = new byte[MAX_CHUNK];
+        int length = 0;
+        long hash = 0;
+        while (length < MAX_CHUNK) {
+            if (position == limit) {
+                limit = in.read(buffer);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    break;
+                }
+            }
+            byte b = buffer[position];
+            position += 1;
+            chunk[length] = b;
+            length += 1;
+            hash = (hash << 1) + GEAR[b & 0xff];
+            if (length >= MIN_CHUNK && (hash & MASK) == 0) {
+                break;
+            }
+        }
+        return (length == 0) ? null : Arrays.copyOf(chunk, length);
+    }
+
+    /** Returns the manifest of the chunks with the given IDS and LENGTHS. */
+    static byte[] manifest(List<String> ids, List<Integer> lengths) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + ids.size() * ENTRY);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(ids.size());
+            for (int i = 0; i < ids.size(); i += 1) {
+                out.write(rawId(ids.get(i)));
+                out.writeInt(lengths.get(i));
+            }
+        } catch (IOException e) {
+            throw error("Could not encode chunk manifest.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the chunk ids listed in MANIFEST, in order. */
+    static List<String> chunkIds(byte[] manifest) {
+        ByteBuffer buf = ByteBuffer.wrap(manifest);
+        int count = buf.getInt();
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            ids.add(hexId(manifest, 4 + i * ENTRY));
+        }
+        return ids;
+    }
+
+    /** Returns the length of the chunk listed K-th in MANIFEST. */
+    static int chunkLength(byte[] manifest, int k) {
+        return ByteBuffer.wrap(manifest).getInt(4 + k * ENTRY + RAW_UID_LENGTH);
+    }
+
+    /** Returns the total length of the chunks listed in MANIFEST. */
+    static long contentLength(byte[] manifest) {
+        int count = ByteBuffer.wrap(manifest).getInt();
+        long total = 0;
+        for (int k = 0; k < count; k += 1) {
+            total += chunkLength(manifest, k);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,104 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** Performs a timing and deduplication test of content-defined chunking on a
+ *  synthetic history of a large binary file, each version a copy of the one
+ *  before with a few small insertions, deletions and overwrites. It reports the
+ *  chunking throughput and how many bytes each scheme would store: whole blobs,
+ *  fixed-size blocks, or Chunker chunks. Fixed-size blocks lose every block
+ *  after the first insertion or deletion, content-defined chunks do not.
+ *  Needs a heap of about three times the file size.
+ *  Usage: java gitlet.ChunkingSpeedTest [MEGABYTES] [VERSIONS] [EDITS]
+ *  @author Sophia Xia
+ */
+public class ChunkingSpeedTest {
+
+    /** Builds the versions and chunks each of them. ARGS optionally holds the
+     *  file size in megabytes, the number of versions and the edits per version. */
+    public static void main(String[] args) throws IOException {
+        int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+        int versions = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        int edits = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+        Random random = new Random(17);
+        byte[] file = new byte[megabytes << 20];
+        random.nextBytes(file);
+
+        System.out.printf("%d versions of a %d MB file, %d edits per version.%n",
+                versions, megabytes, edits);
+        Set<String> chunks = new HashSet<>();
+        Set<String> blocks = new HashSet<>();
+        long total = 0;
+        long chunkBytes = 0;
+        long blockBytes = 0;
+        long chunkCount = 0;
+        long nanos = 0;
+        for (int v = 0; v < versions; v += 1) {
+            if (v > 0) {
+                file = edit(file, edits, random);
+            }
+            total += file.length;
+            long start = System.nanoTime();
+            Chunker chunker = new Chunker(new ByteArrayInputStream(file));
+            for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+                chunkCount += 1;
+                if (chunks.add(sha1((Object) chunk))) {
+                    chunkBytes += chunk.length;
+                }
+            }
+            nanos += System.nanoTime() - start;
+            for (int offset = 0; offset < file.length; offset += Chunker.AVERAGE_CHUNK) {
+                byte[] block = Arrays.copyOfRange(file, offset,
+                        Math.min(file.length, offset + Chunker.AVERAGE_CHUNK));
+                if (blocks.add(sha1((Object) block))) {
+                    blockBytes += block.length;
+                }
+            }
+        }
+        System.out.printf("Chunking and hashing: %.1f MB/s, %d chunks of %d bytes on average%n",
+                total / 1048576.0 / (nanos / 1e9), chunkCount, total / chunkCount);
+        System.out.printf("Whole blobs:          %12d bytes stored%n", total);
+        System.out.printf("Fixed-size blocks:    %12d bytes stored, dedup ratio %.2f%n",
+                blockBytes, (double) total / blockBytes);
+        System.out.printf("Content-defined:      %12d bytes stored, dedup ratio %.2f%n",
+                chunkBytes, (double) total / chunkBytes);
+    }
+
+    /** Returns a copy of FILE with EDITS random insertions, deletions and
+     *  overwrites of up to 100 bytes each. */
+    private static byte[] edit(byte[] file, int edits, Random random) {
+        byte[] result = file;
+        for (int e = 0; e < edits; e += 1) {
+            int at = random.nextInt(result.length - 100);
+            byte[] bytes = new byte[1 + random.nextInt(100)];
+            random.nextBytes(bytes);
+            switch (random.nextInt(3)) {
+                case 0:
+                    byte[] inserted = new byte[result.length + bytes.length];
+                    System.arraycopy(result, 0, inserted, 0, at);
+                    System.arraycopy(bytes, 0, inserted, at, bytes.length);
+                    System.arraycopy(result, at, inserted, at + bytes.length, result.length - at);
+                    result = inserted;
+                    break;
+                case 1:
+                    byte[] deleted = new byte[result.length - bytes.length];
+                    System.arraycopy(result, 0, deleted, 0, at);
+                    System.arraycopy(result, at + bytes.length, deleted, at,
+                            deleted.length - at);
+                    result = deleted;
+                    break;
+                default:
+                    result = (result == file) ? result.clone() : result;
+                    System.arraycopy(bytes, 0, result, at, bytes.length);
+            }
+        }
+        return result;
+    }
+}
@@ -3,6 +3,8 @@ package gitlet;
 import java.io.File;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
@@ -20,16 +22,33 @@ public class Commit implements Serializable {
     static final File OBJECT_FOLDER = join(Repository.GITLET_DIR, "objects");
 
     static File blobsPath(String id) {
-        return join(OBJECT_FOLDER, "blobs", id.substring(0, 2), id.substring(2));
+        return ObjectStore.loosePath(ObjectStore.BLOB, id);
     }
 
     static File commitsPath(String id) {
-        return join(OBJECT_FOLDER, "commits", id.substring(0, 2), id.substring(2));
+        return ObjectStore.loosePath(ObjectStore.COMMIT, id);
     }
 
     /** serialVersionUID is a long that the JVM writes alongside each serialized object. */
     private static final long serialVersionUID = 1L;
 
+    /** First bytes of a commit in the binary format, "GCMT". */
+    private static final int FORMAT_MAGIC = 0x47434d54;
+
+    /** Version of the binary format written by encode: 1 lists every file,
+     *  2 refers to the root Tree instead. */
+    private static final byte FLAT_VERSION = 1;
+
+    private static final byte TREE_VERSION = 2;
+
+    /** Flags recording which parents a commit in the binary format has. */
+    private static final byte HAS_PARENT = 1;
+
+    private static final byte HAS_SECOND_PARENT = 2;
+
+    /** Largest file, in bytes, that is read into memory to be stored as a delta. */
+    private static final long MAX_DELTA_SIZE = 1 << 24;
+
     // Persisted fields (written to disk)
     /** The message of this Commit.*/
     private final String message;
@@ -46,9 +65,12 @@ public class Commit implements Serializable {
     /** The commitId associated with the current commit. */
     private String commitId;
 
-    /** File Name --> blobId (sorted) */
+    /** File Name --> blobId (sorted), listed from the tree on first use. */
     private TreeMap<String, String> fileIndex;
 
+    /** Id of the root Tree of the files, null for commits saved before trees existed. */
+    private String treeId;
+
     // Runtime-only pointers (NOT written to disk)
     private transient Commit parent;
 
@@ -60,6 +82,7 @@ public class Commit implements Serializable {
      * Creates a commit object constructor with the specific parameters.
      * @param message: log message.
      * @param parentId: parent reference, transiently created
+     * @param snapshot: files of the commit, or null if buildFileIndex builds them.
      */
     public Commit(String message,
                   String parentId,
@@ -71,52 +94,72 @@ public class Commit implements Serializable {
         this.secondParentId = secondParentId;
         this.timestamp = (parentId == null) ? 0L : System.currentTimeMillis();
         // defensive copy to lock it down (TreeMap keeps deterministic order)
-        this.fileIndex = new TreeMap<>(snapshot);
+        this.fileIndex = (snapshot == null) ? null : new TreeMap<>(snapshot);
+    }
+
+    /** Creates a commit read back from the binary format. */
+    private Commit(String message,
+                   long timestamp,
+                   String parentId,
+                   String secondParentId,
+                   TreeMap<String, String> fileIndex,
+                   String treeId) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.parentId = parentId;
+        this.secondParentId = secondParentId;
+        this.fileIndex = fileIndex;
+        this.treeId = treeId;
     }
 
     public TreeMap<String, String> getFileIndex() {
+        if (this.fileIndex == null) {
+            TreeMap<String, String> files = new TreeMap<>();
+            if (treeId != null) {
+                Tree.flatten(treeId, "", files);
+            }
+            this.fileIndex = files;
+            if (commitId != null) {
+                CommitCache.reweigh(commitId, this);
+            }
+        }
         return this.fileIndex;
     }
 
+    /** Returns the id of the root Tree of this commit, first writing the trees
+     *  of a commit saved before trees existed. */
+    String getTreeId() {
+        if (treeId == null) {
+            treeId = Tree.update(null, getFileIndex());
+        }
+        return treeId;
+    }
+
+    /** Returns the number of files of the fileIndex in memory, 0 if it has not
+     *  been listed from the tree yet. */
+    int loadedFileCount() {
+        return (fileIndex == null) ? 0 : fileIndex.size();
+    }
+
 
     /**
-     * Build fileIndex included for this commit from snapshot +/- staged files
+     * Build the tree of this commit from the parent's tree +/- staged files.
+     * The blobs of staged files were stored by `add`, so only the staging index
+     * is read, and only the trees on the paths of staged files are written; the
+     * fileIndex is listed from the new tree when it is next needed.
      */
     public void buildFileIndex() {
         // start from parent snapshot
-        if (parentId == null) {
-            fileIndex.clear();
-        } else {
-            fileIndex = new TreeMap<>(Commit.fromObject(parentId).getFileIndex());
-        }
-
-        // Check staged additions & removals
-        List<String> adds = plainFilenamesIn(Repository.STAGED_ADD_FOLDER);
-        List<String> removal = plainFilenamesIn(Repository.STAGED_RM_FOLDER);
-
-        // Failure case: If no files have been staged, abort.
-        if (adds == null & removal == null) {
-            throw error("No changes added to the commit.");
-        }
-        // Check if there's any files staged for additions
-        if (adds != null && !adds.isEmpty()) {
-            for (String fileName : adds) {
-                File file = join(Repository.STAGED_ADD_FOLDER, fileName);
-                byte[] bytes = readContents(file);
-                String blobId = sha1((Object) bytes);
-                Commit.saveFileBlob(blobId, bytes);
-                fileIndex.put(fileName, blobId);
-                Repository.deleteIfExists(file);
-            }
-        }
-        // Check if there's any files staged for removal
-        if (removal != null && !removal.isEmpty()) {
-            removal.forEach(fileIndex::remove);
-            for (String fileName : removal) {
-                File file = join(Repository.STAGED_RM_FOLDER, fileName);
-                Repository.deleteIfExists(file);
-            }
+        String parentTree = (parentId == null) ? null : Commit.fromObject(parentId).getTreeId();
+
+        // Staged additions with their blob ids, and staged removals
+        TreeMap<String, String> changes = new TreeMap<>(StagingIndex.additions());
+        for (String fileName : StagingIndex.removals()) {
+            changes.put(fileName, null);
         }
+        treeId = Tree.update(parentTree, changes);
+        fileIndex = null;
+        StagingIndex.clear();
     }
 
     /** Get parent commit id*/
@@ -133,33 +176,63 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Save file as raw contents in bytes
+     * Save the contents of a file as a blob. Files larger than the `chunk.threshold`
+     * setting, if it is positive, are stored as chunks shared with other blobs.
+     * Files no larger than MAX_DELTA_SIZE may be stored as a delta, which needs
+     * them in memory; anything else is hashed and written in one streaming pass.
+     * @param file: the file to save.
+     * @param baseId: blobId of the previous version of the file, null if none.
+     * @return the blobId of the contents of FILE.
+     */
+    public static String saveFileBlob(File file, String baseId) {
+        long chunkThreshold = Config.getInt("chunk.threshold", 0);
+        if (chunkThreshold > 0 && file.length() > chunkThreshold) {
+            return ObjectStore.writeChunkedBlob(file);
+        }
+        if (baseId != null && Config.getInt("delta.depth", 0) > 0
+                && file.length() <= MAX_DELTA_SIZE) {
+            byte[] bytes = readContents(file);
+            String blobId = sha1((Object) bytes);
+            saveFileBlob(blobId, bytes, baseId);
+            return blobId;
+        }
+        return ObjectStore.writeLooseBlob(file);
+    }
+
+    /**
+     * Save file as raw contents in bytes, or as a delta against the previous version
+     * of the same file when the `delta.depth` setting allows a chain that long.
      * @param blobId: File object path
      * @param bytes: write raw contents
+     * @param baseId: blobId of the previous version of the file, null if none.
      */
-    public static void saveFileBlob(String blobId, byte[] bytes) {
-        File outFile = blobsPath(blobId);
-        outFile.getParentFile().mkdirs();
-        writeContents(outFile, (Object) bytes);
+    public static void saveFileBlob(String blobId, byte[] bytes, String baseId) {
+        if (ObjectStore.contains(ObjectStore.BLOB, blobId)) {
+            return;
+        }
+        int maxDepth = Config.getInt("delta.depth", 0);
+        if (baseId != null && maxDepth > 0) {
+            int depth = ObjectStore.deltaDepth(baseId) + 1;
+            byte[] base = (depth <= maxDepth) ? ObjectStore.read(ObjectStore.BLOB, baseId) : null;
+            if (base != null) {
+                byte[] delta = Delta.create(baseId, depth, base, bytes);
+                if (delta.length < bytes.length) {
+                    ObjectStore.writeLoose(ObjectStore.DELTA, blobId, delta);
+                    return;
+                }
+            }
+        }
+        ObjectStore.writeLoose(ObjectStore.BLOB, blobId, bytes);
     }
 
     /**
      * Reading as file bytes
-     * @param blobId: file objects path
-     * @return File Content String
+     * @param blobId: file objects path, null for a missing file
+     * @return File Content bytes, empty for a missing file
      */
-    public static String readFileBlob(String blobId) {
-        String result;
-        if (blobId == null) {
-            return "";
-        }
-        try {
-            File file = blobsPath(blobId);
-            result = readContentsAsString(file);
-        } catch (IllegalArgumentException e) {
-            result = "";
-        }
-        return result;
+    public static byte[] readFileBlob(String blobId) {
+        byte[] bytes = (blobId == null) ? null : ObjectStore.read(ObjectStore.BLOB, blobId);
+        return (bytes == null) ? new byte[0] : bytes;
     }
 
     /**
@@ -169,41 +242,237 @@ public class Commit implements Serializable {
      */
     public static void saveFileContents(String fileName, String contents, File path) {
         File file = Utils.join(path, fileName);
+        file.getParentFile().mkdirs();
         writeContents(file, contents);
     }
 
     /**
-     * Reads in and deserializes a commit from a file
+     * Utility function to save a committed version of a file byte for byte,
+     * so that binary files are restored unchanged.
+     * @param fileName: name of the file
+     * @param blobId: blob id of the version to save, not null
+     * @param path: directory to save the file in
+     */
+    public static void restoreFileBlob(String fileName, String blobId, File path) {
+        if (blobId == null) {
+            throw error("File does not exist in that commit.");
+        }
+        byte[] bytes = ObjectStore.read(ObjectStore.BLOB, blobId);
+        File file = Utils.join(path, fileName);
+        file.getParentFile().mkdirs();
+        writeContents(file, (Object) ((bytes == null) ? new byte[0] : bytes));
+    }
+
+    /**
+     * Reads in and decodes a commit from a file, unless it is in the CommitCache.
      *
      * @param commitId CommitId: name of the file for the commit to load
      * @return Commit from file
      */
     public static Commit fromObject(String commitId) {
-        File file = commitsPath(commitId);
+        Commit commit = CommitCache.get(commitId);
+        if (commit != null) {
+            return commit;
+        }
         try {
-            return readObject(file, Commit.class);
+            byte[] bytes = ObjectStore.read(ObjectStore.COMMIT, commitId);
+            if (bytes == null) {
+                return null;
+            }
+            commit = decode(bytes);
+            commit.commitId = commitId;
+            CommitCache.put(commitId, commit);
+            return commit;
         } catch (IllegalArgumentException e) {
             return null;
         }
     }
 
+    /**
+     * Encodes this commit in the binary format:
+     *     magic (int) | version (byte) | timestamp (long) | parent flags (byte)
+     *     | raw parent id (20 bytes, if any) | raw second parent id (20 bytes, if any)
+     *     | message length (int) | UTF-8 message
+     * followed in version 2 by the raw id of the root tree, and in version 1, used
+     * for a commit without a tree, by
+     *     number of files (int) | per file: name length (int) | UTF-8 name | raw blob id
+     * @return the encoded commit.
+     */
+    byte[] encode() {
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        if (treeId != null) {
+            ByteBuffer buf = ByteBuffer.allocate(
+                    4 + 1 + 8 + 1 + 3 * RAW_UID_LENGTH + 4 + messageBytes.length);
+            putHeader(buf, TREE_VERSION, messageBytes);
+            buf.put(rawId(treeId));
+            return Arrays.copyOf(buf.array(), buf.position());
+        }
+        List<byte[]> names = new ArrayList<>(fileIndex.size());
+        int size = 4 + 1 + 8 + 1 + 2 * RAW_UID_LENGTH + 4 + messageBytes.length + 4;
+        for (String name : fileIndex.keySet()) {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            names.add(nameBytes);
+            size += 4 + nameBytes.length + RAW_UID_LENGTH;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        putHeader(buf, FLAT_VERSION, messageBytes);
+        buf.putInt(names.size());
+        int k = 0;
+        for (String blobId : fileIndex.values()) {
+            byte[] nameBytes = names.get(k);
+            buf.putInt(nameBytes.length).put(nameBytes).put(rawId(blobId));
+            k += 1;
+        }
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /** Puts the fields that precede the files of this commit into BUF. */
+    private void putHeader(ByteBuffer buf, byte version, byte[] messageBytes) {
+        buf.putInt(FORMAT_MAGIC).put(version).putLong(timestamp);
+        buf.put((byte) ((parentId == null ? 0 : HAS_PARENT)
+                | (secondParentId == null ? 0 : HAS_SECOND_PARENT)));
+        if (parentId != null) {
+            buf.put(rawId(parentId));
+        }
+        if (secondParentId != null) {
+            buf.put(rawId(secondParentId));
+        }
+        buf.putInt(messageBytes.length).put(messageBytes);
+    }
+
+    /**
+     * Decodes a commit written by encode, or by Java serialization before the
+     * binary format existed.
+     * @param bytes: the encoded commit.
+     * @return the decoded commit.
+     */
+    static Commit decode(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (bytes.length < 4 || buf.getInt() != FORMAT_MAGIC) {
+            return deserialize(bytes, Commit.class);
+        }
+        byte version = buf.get();
+        if (version != FLAT_VERSION && version != TREE_VERSION) {
+            throw new IllegalArgumentException("unknown commit format");
+        }
+        long timestamp = buf.getLong();
+        byte flags = buf.get();
+        String parentId = ((flags & HAS_PARENT) != 0) ? readRawId(buf) : null;
+        String secondParentId = ((flags & HAS_SECOND_PARENT) != 0) ? readRawId(buf) : null;
+        String message = readString(buf);
+        if (version == TREE_VERSION) {
+            return new Commit(message, timestamp, parentId, secondParentId, null,
+                    readRawId(buf));
+        }
+        int files = buf.getInt();
+        TreeMap<String, String> fileIndex = new TreeMap<>();
+        for (int i = 0; i < files; i += 1) {
+            String name = readString(buf);
+            fileIndex.put(name, readRawId(buf));
+        }
+        return new Commit(message, timestamp, parentId, secondParentId, fileIndex, null);
+    }
+
+    /**
+     * Reads only the message of a commit, without building its fileIndex.
+     * @param commitId: id of the commit.
+     * @return the message, or null if there is no such commit.
+     */
+    static String readMessage(String commitId) {
+        Commit cached = CommitCache.get(commitId);
+        if (cached != null) {
+            return cached.getMessage();
+        }
+        byte[] bytes = ObjectStore.read(ObjectStore.COMMIT, commitId);
+        if (bytes == null) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (bytes.length < 4 || buf.getInt() != FORMAT_MAGIC) {
+            return deserialize(bytes, Commit.class).getMessage();
+        }
+        buf.get();
+        buf.getLong();
+        byte flags = buf.get();
+        int parents = ((flags & HAS_PARENT) != 0 ? 1 : 0)
+                + ((flags & HAS_SECOND_PARENT) != 0 ? 1 : 0);
+        buf.position(buf.position() + parents * RAW_UID_LENGTH);
+        return readString(buf);
+    }
+
+    /** Reads a length-prefixed UTF-8 string from BUF. */
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        String result = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return result;
+    }
+
+    /** Reads a raw id from BUF and returns it in hexadecimal. */
+    private static String readRawId(ByteBuffer buf) {
+        String result = hexId(buf.array(), buf.position());
+        buf.position(buf.position() + RAW_UID_LENGTH);
+        return result;
+    }
+
     /**
      * Serialize the Commit object to objects/ in a file that is the same as its commitId.
      * If already exists, no changes needed. Commit node is immutable.
      * @return String: The commitId being saved to objects/ path.
      */
     public String saveCommit() {
+        getTreeId();
         commitId = getCommitId();
-        File outFile = commitsPath(commitId);
         // Once a commit node has been created, can only add new things, not anything existing.
-        if (outFile.exists()) {
+        if (ObjectStore.contains(ObjectStore.COMMIT, commitId)) {
             throw error("A Gitlet version-control system already exists in the current directory.");
         }
-        outFile.getParentFile().mkdirs();
-        writeObject(outFile, this);
+        // lists the commits saved before the log existed, without this one
+        CommitLog log = CommitLog.load();
+        ObjectStore.writeLoose(ObjectStore.COMMIT, commitId, encode());
+        CommitGraph.load().add(commitId, this);
+        log.add(commitId, this);
+        SearchIndex.load().update(log);
         return commitId;
     }
 
+    /**
+     * Stores a commit received from another repository and adds it to the commit
+     * graph and log, after checking that its id is the one computed from its
+     * contents, and that its parents and tree are stored already.
+     * @param commitId: id of the commit.
+     * @param encoded: the commit as stored by the other repository.
+     */
+    static void saveReceived(String commitId, byte[] encoded) {
+        // lists the commits saved before the log existed, without this one
+        CommitLog log = CommitLog.load();
+        if (ObjectStore.contains(ObjectStore.COMMIT, commitId)) {
+            return;
+        }
+        Commit commit;
+        try {
+            commit = decode(encoded);
+        } catch (RuntimeException e) {
+            throw error("Received commit %s is not a commit.", commitId);
+        }
+        if (!commitId.equals(commit.computeCommitId())) {
+            throw error("Received a corrupt object %s.", commitId);
+        }
+        for (String parent : commit.getParentId()) {
+            if (!ObjectStore.contains(ObjectStore.COMMIT, parent)) {
+                throw error("Received commit %s before its parent %s.", commitId, parent);
+            }
+        }
+        if (commit.treeId != null && !ObjectStore.contains(ObjectStore.TREE, commit.treeId)) {
+            throw error("Received commit %s before its tree %s.", commitId, commit.treeId);
+        }
+        ObjectStore.writeLoose(ObjectStore.COMMIT, commitId, encoded);
+        commit.commitId = commitId;
+        CommitCache.put(commitId, commit);
+        CommitGraph.load().add(commitId, commit);
+        log.add(commitId, commit);
+    }
+
     /**
      * Public method that retrieves the commit message private attribute.
      * @return message in this commit
@@ -217,6 +486,23 @@ public class Commit implements Serializable {
      * @return timestamp created in this commit
      */
     public String getDateTime() {
+        return formatDateTime(timestamp);
+    }
+
+    /**
+     * Public method that retrieves the commit timestamp in milliseconds.
+     * @return timestamp created in this commit
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Formats a commit timestamp the way `gitlet log` displays it.
+     * @param timestamp: milliseconds since the epoch.
+     * @return formatted date and time
+     */
+    public static String formatDateTime(long timestamp) {
         DateTimeFormatter f = DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
         return Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault()).format(f);
     }
@@ -236,9 +522,13 @@ public class Commit implements Serializable {
         if (secondParentId != null) {
             sb.append("secondParent:").append(secondParentId).append('\n');
         }
-        fileIndex.forEach((name, blob) ->
-                sb.append(name).append('\0').append(blob).append('\n')
-        );
+        if (treeId != null) {
+            sb.append("tree:").append(treeId).append('\n');
+        } else {
+            fileIndex.forEach((name, blob) ->
+                    sb.append(name).append('\0').append(blob).append('\n')
+            );
+        }
         return sha1(sb.toString());
     }
 
@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** A bounded least-recently-used cache of decoded commits, keyed by commitId.
+ *  Each commit weighs one plus the number of files of its fileIndex in memory.
+ *  A tree commit only lists its files on demand, so it is weighed again when
+ *  it does; the weight of each entry is kept with it, and exactly that is
+ *  taken off the total when it leaves. The least recently used commits are
+ *  evicted once the total weight exceeds the `cache.weight` setting. Commits
+ *  are immutable once saved, so a cached commit never goes stale within one
+ *  command.
+ *  @author Sophia Xia
+ */
+class CommitCache {
+
+    /** Total weight kept when the `cache.weight` setting is absent. */
+    private static final int DEFAULT_WEIGHT = 1 << 20;
+
+    /** Cached commits, least recently used first. */
+    private static final LinkedHashMap<String, Entry> COMMITS =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private static long weight;
+
+    private static long maxWeight = -1;
+
+    private static long hits;
+
+    private static long misses;
+
+    private static long evictions;
+
+    /** A cached commit and the weight it was counted with. */
+    private static class Entry {
+        final Commit commit;
+        long weight;
+
+        Entry(Commit commit) {
+            this.commit = commit;
+            this.weight = weightOf(commit);
+        }
+    }
+
+    /** Returns the cached commit with the given COMMITID, or null if it is not cached. */
+    static Commit get(String commitId) {
+        Entry entry = COMMITS.get(commitId);
+        if (entry == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return entry.commit;
+    }
+
+    /** Caches COMMIT under COMMITID, evicting least recently used commits as needed. */
+    static void put(String commitId, Commit commit) {
+        Entry entry = new Entry(commit);
+        Entry previous = COMMITS.put(commitId, entry);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entry.weight;
+        evict();
+    }
+
+    /** Weighs COMMIT again after it listed its files, if it is the commit
+     *  cached under COMMITID, evicting least recently used commits as needed. */
+    static void reweigh(String commitId, Commit commit) {
+        Entry entry = COMMITS.get(commitId);
+        if (entry == null || entry.commit != commit) {
+            return;
+        }
+        long now = weightOf(commit);
+        weight += now - entry.weight;
+        entry.weight = now;
+        evict();
+    }
+
+    /** Evicts least recently used commits until the total weight is within bounds. */
+    private static void evict() {
+        if (maxWeight < 0) {
+            maxWeight = Config.getInt("cache.weight", DEFAULT_WEIGHT);
+        }
+        Iterator<Entry> eldest = COMMITS.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            weight -= evicted.weight;
+            evictions += 1;
+        }
+    }
+
+    /** Returns a summary of the hits, misses and evictions of this cache. */
+    static String statistics() {
+        return String.format("commit cache: %d hits, %d misses, %d evictions, "
+                + "%d commits of weight %d cached", hits, misses, evictions,
+                COMMITS.size(), weight);
+    }
+
+    private static long weightOf(Commit commit) {
+        return 1 + commit.loadedFileCount();
+    }
+}
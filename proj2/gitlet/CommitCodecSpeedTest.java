@@ -0,0 +1,56 @@
+package gitlet;
+
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Performs a timing test of decoding commits written with Java serialization
+ *  against commits written in the binary format of Commit.encode.
+ *  Usage: java gitlet.CommitCodecSpeedTest [FILES] [ROUNDS]
+ *  @author Sophia Xia
+ */
+public class CommitCodecSpeedTest {
+
+    /** Number of tracked files in the commit, unless given as an argument. */
+    private static final int DEFAULT_FILES = 10000;
+
+    /** Number of timed decodes per format, unless given as an argument. */
+    private static final int DEFAULT_ROUNDS = 200;
+
+    /** Times decoding both formats of one commit. ARGS optionally holds the
+     *  number of tracked files and the number of rounds. */
+    public static void main(String[] args) {
+        int files = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_FILES;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        TreeMap<String, String> snapshot = new TreeMap<>();
+        for (int i = 0; i < files; i += 1) {
+            String name = String.format("file-%06d.txt", i);
+            snapshot.put(name, sha1(name));
+        }
+        Commit commit = new Commit("speed test", sha1("parent"), null, null, snapshot);
+        byte[] serialized = serialize(commit);
+        byte[] encoded = commit.encode();
+
+        System.out.printf("Decoding a commit of %d files, %d rounds each.%n", files, rounds);
+        System.out.printf("Java serialization: %8d bytes, %s%n",
+                serialized.length, timeDecode(serialized, rounds));
+        System.out.printf("Binary format:      %8d bytes, %s%n",
+                encoded.length, timeDecode(encoded, rounds));
+    }
+
+    /** Returns the decode throughput of BYTES over ROUNDS rounds, after as
+     *  many warm-up rounds. */
+    private static String timeDecode(byte[] bytes, int rounds) {
+        int checksum = 0;
+        for (int i = 0; i < rounds; i += 1) {
+            checksum += Commit.decode(bytes).getFileIndex().size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i += 1) {
+            checksum += Commit.decode(bytes).getFileIndex().size();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("%.2f ms/commit, %.0f commits/s (checksum %d)",
+                seconds * 1000 / rounds, rounds / seconds, checksum);
+    }
+}
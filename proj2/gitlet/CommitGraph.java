@@ -0,0 +1,242 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** The ancestry of all commits, kept in a side file so that graph walks never
+ *  decode a commit or its fileIndex. The file holds a magic number and version,
+ *  then one fixed-width row per commit
+ *      raw commitId (20 bytes) | first parent row (int) | second parent row (int)
+ *      | generation number (int) | timestamp (long)
+ *  where a missing parent is -1, and the generation number is 1 for a root
+ *  commit and otherwise one more than the largest generation of its parents.
+ *  Parents always precede their children, so rows are only ever appended:
+ *  by saveCommit for new commits, and lazily for commits saved before the
+ *  graph existed.
+ *  @author Sophia Xia
+ */
+class CommitGraph {
+
+    /** File that the commit graph is stored in. */
+    static final File GRAPH = join(Commit.OBJECT_FOLDER, "commit-graph");
+
+    private static final int MAGIC = 0x4743475a; // "GCGZ"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER = 8;
+
+    private static final int ROW = RAW_UID_LENGTH + 4 + 4 + 4 + 8;
+
+    /** No parent, or no such commit. */
+    static final int NONE = -1;
+
+    /** The graph loaded by this process, null until first needed. */
+    private static CommitGraph loaded;
+
+    private String[] ids = new String[16];
+
+    private int[] firstParents = new int[16];
+
+    private int[] secondParents = new int[16];
+
+    private int[] generations = new int[16];
+
+    private long[] timestamps = new long[16];
+
+    private int size;
+
+    private final Map<String, Integer> rows = new HashMap<>();
+
+    /** Creates an empty graph, kept in memory only unless it is the one load returns. */
+    CommitGraph() {
+    }
+
+    /** Returns the commit graph of this repository, reading it on first use. */
+    static CommitGraph load() {
+        if (loaded == null) {
+            loaded = new CommitGraph();
+            if (GRAPH.isFile()) {
+                byte[] bytes = readContents(GRAPH);
+                int valid = loaded.read(bytes);
+                if (valid < bytes.length) {
+                    writeContents(GRAPH, (Object) Arrays.copyOf(bytes, valid));
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /** Forgets the loaded graph, so the next use reads it again. */
+    static void unload() {
+        loaded = null;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Finds the row of a commit, first appending rows for it and any of its
+     * ancestors saved before the graph existed.
+     * @param commitId: complete id of the commit.
+     * @return its row, or NONE if there is no such commit.
+     */
+    int indexOf(String commitId) {
+        Integer row = rows.get(commitId);
+        if (row != null) {
+            return row;
+        }
+        if (Commit.fromObject(commitId) == null) {
+            return NONE;
+        }
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.push(commitId);
+        while (!pending.isEmpty()) {
+            String id = pending.peek();
+            if (rows.containsKey(id)) {
+                pending.pop();
+                continue;
+            }
+            Commit commit = Commit.fromObject(id);
+            if (commit == null) {
+                throw error("Commit %s is missing from the repository.", id);
+            }
+            boolean ready = true;
+            for (String parent : commit.getParentId()) {
+                if (!rows.containsKey(parent)) {
+                    pending.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                pending.pop();
+                add(id, commit);
+            }
+        }
+        return rows.get(commitId);
+    }
+
+    /** Returns the commitId of ROW. */
+    String idAt(int row) {
+        return ids[row];
+    }
+
+    /** Returns the row of the first parent of ROW, or NONE. */
+    int firstParent(int row) {
+        return firstParents[row];
+    }
+
+    /** Returns the row of the second parent of ROW, or NONE. */
+    int secondParent(int row) {
+        return secondParents[row];
+    }
+
+    /** Returns the generation number of ROW. */
+    int generation(int row) {
+        return generations[row];
+    }
+
+    /** Returns the timestamp of ROW. */
+    long timestamp(int row) {
+        return timestamps[row];
+    }
+
+    /**
+     * Appends a row for a newly saved commit, whose parents are added first
+     * if they are not in the graph yet.
+     * @param commitId: id of the commit.
+     * @param commit: the commit itself.
+     * @return the row of the commit.
+     */
+    int add(String commitId, Commit commit) {
+        Integer existing = rows.get(commitId);
+        if (existing != null) {
+            return existing;
+        }
+        List<String> parents = commit.getParentId();
+        int first = parents.isEmpty() ? NONE : indexOf(parents.get(0));
+        int second = (parents.size() < 2) ? NONE : indexOf(parents.get(1));
+        int row = append(commitId, first, second, commit.getTimestamp());
+        int generation = generations[row];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(GRAPH, true)))) {
+            if (GRAPH.length() == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.write(rawId(commitId));
+            out.writeInt(first);
+            out.writeInt(second);
+            out.writeInt(generation);
+            out.writeLong(commit.getTimestamp());
+        } catch (IOException e) {
+            throw error("Could not write file " + GRAPH.toPath());
+        }
+        return row;
+    }
+
+    /**
+     * Adds a row to the in-memory graph only, computing its generation number.
+     * @param commitId: id of the commit.
+     * @param first: row of its first parent, or NONE.
+     * @param second: row of its second parent, or NONE.
+     * @param timestamp: timestamp of the commit.
+     * @return the row of the commit.
+     */
+    int append(String commitId, int first, int second, long timestamp) {
+        int generation = 1 + Math.max(first == NONE ? 0 : generations[first],
+                second == NONE ? 0 : generations[second]);
+        return append(commitId, first, second, generation, timestamp);
+    }
+
+    /** Adds a row to the in-memory graph and returns its number. */
+    private int append(String commitId, int first, int second, int generation, long timestamp) {
+        if (size == ids.length) {
+            int capacity = 2 * size;
+            ids = Arrays.copyOf(ids, capacity);
+            firstParents = Arrays.copyOf(firstParents, capacity);
+            secondParents = Arrays.copyOf(secondParents, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+        ids[size] = commitId;
+        firstParents[size] = first;
+        secondParents[size] = second;
+        generations[size] = generation;
+        timestamps[size] = timestamp;
+        rows.put(commitId, size);
+        size += 1;
+        return size - 1;
+    }
+
+    /** Reads the rows of the encoded graph BYTES, and returns the length of the
+     *  rows read. A row cut short by an interrupted write is ignored. */
+    private int read(byte[] bytes) {
+        if (bytes.length < HEADER) {
+            return 0;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            throw error("Unrecognized commit graph %s.", GRAPH.getPath());
+        }
+        while (buf.remaining() >= ROW) {
+            String commitId = hexId(bytes, buf.position());
+            buf.position(buf.position() + RAW_UID_LENGTH);
+            append(commitId, buf.getInt(), buf.getInt(), buf.getInt(), buf.getLong());
+        }
+        return buf.position();
+    }
+}
@@ -0,0 +1,369 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** An append-only log of the metadata of every commit, so that `global-log`
+ *  and `find` never list the object store or decode a commit. Messages are
+ *  appended to one file, and the log holds a magic number and version, then
+ *  one fixed-width row per commit in the order they were saved
+ *      raw commitId (20 bytes) | timestamp (long) | message offset (long)
+ *      | message length (int) | message hash (long)
+ *  where the hash is the first 8 bytes of the SHA-1 of the UTF-8 message.
+ *  A hash index maps messages to rows: after a magic number, version and row
+ *  count it is an open-addressed table of 1 + row (int), 0 for a free slot,
+ *  probed linearly from the slot of the message hash and kept at most half
+ *  full. `find` reads only the slots and rows that share the message's probe
+ *  sequence; `global-log` reads the log and the messages front to back.
+ *  Rows are appended by saveCommit, and for commits saved before the log
+ *  existed, when it is first created. An index whose row count is not that of
+ *  the log, left by an interrupted write, is rebuilt from the hashes in the log.
+ *  @author Sophia Xia
+ */
+class CommitLog {
+
+    /** File that the rows are stored in. */
+    static final File LOG = join(Commit.OBJECT_FOLDER, "commit-log");
+
+    /** File that the messages are stored in, one after another. */
+    static final File MESSAGES = join(Commit.OBJECT_FOLDER, "commit-messages");
+
+    /** File that the message hash index is stored in. */
+    static final File INDEX = join(Commit.OBJECT_FOLDER, "commit-log-index");
+
+    private static final int MAGIC = 0x47434c47; // "GCLG"
+
+    private static final int INDEX_MAGIC = 0x47434c48; // "GCLH"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER = 8;
+
+    private static final int INDEX_HEADER = 12;
+
+    private static final int ROW = RAW_UID_LENGTH + 8 + 8 + 4 + 8;
+
+    private static final int MIN_SLOTS = 1 << 10;
+
+    /** The log loaded by this process, null until first needed. */
+    private static CommitLog loaded;
+
+    /** Number of rows in the log. */
+    private int size;
+
+    /** Number of slots in the hash index. */
+    private int slots;
+
+    /** Receives the commits of the log in turn. */
+    interface Visitor {
+        void visit(int row, String commitId, long timestamp, String message);
+    }
+
+    /** Returns the commit log of this repository, creating it from the commits
+     *  in the object store if it does not exist yet. */
+    static CommitLog load() {
+        if (loaded == null) {
+            loaded = new CommitLog();
+            if (LOG.isFile()) {
+                loaded.open();
+            } else {
+                loaded.create();
+            }
+        }
+        return loaded;
+    }
+
+    /** Forgets the loaded log, so the next use reads it again. */
+    static void unload() {
+        loaded = null;
+    }
+
+    /** Returns the number of commits in the log. */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends the metadata of a newly saved commit.
+     * @param commitId: id of the commit.
+     * @param commit: the commit itself.
+     */
+    void add(String commitId, Commit commit) {
+        byte[] message = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+        long offset = MESSAGES.length();
+        try (FileOutputStream out = new FileOutputStream(MESSAGES, true)) {
+            out.write(message);
+        } catch (IOException e) {
+            throw error("Could not write file " + MESSAGES.toPath());
+        }
+        long hash = hashOf(message);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(LOG, true)))) {
+            out.write(rawId(commitId));
+            out.writeLong(commit.getTimestamp());
+            out.writeLong(offset);
+            out.writeInt(message.length);
+            out.writeLong(hash);
+        } catch (IOException e) {
+            throw error("Could not write file " + LOG.toPath());
+        }
+        size += 1;
+        if (2L * size > slots) {
+            rebuildIndex(2 * slots);
+            return;
+        }
+        try (RandomAccessFile index = new RandomAccessFile(INDEX, "rw")) {
+            int slot = slotOf(hash);
+            while (readSlot(index, slot) != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            index.seek(INDEX_HEADER + 4L * slot);
+            index.writeInt(size);
+            index.seek(8);
+            index.writeInt(size);
+        } catch (IOException e) {
+            throw error("Could not write file " + INDEX.toPath());
+        }
+    }
+
+    /**
+     * Finds the commits with a message.
+     * @param message: the complete message.
+     * @return ids of the commits with exactly that message, in the order saved.
+     */
+    List<String> find(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        long hash = hashOf(bytes);
+        List<Integer> matches = new ArrayList<>();
+        try (RandomAccessFile index = new RandomAccessFile(INDEX, "r");
+             RandomAccessFile log = new RandomAccessFile(LOG, "r");
+             RandomAccessFile messages = new RandomAccessFile(MESSAGES, "r")) {
+            byte[] row = new byte[ROW];
+            for (int slot = slotOf(hash), value = readSlot(index, slot); value != 0;
+                 slot = (slot + 1) & (slots - 1), value = readSlot(index, slot)) {
+                log.seek(HEADER + (long) (value - 1) * ROW);
+                log.readFully(row);
+                ByteBuffer buf = ByteBuffer.wrap(row, RAW_UID_LENGTH + 8, ROW - RAW_UID_LENGTH - 8);
+                long offset = buf.getLong();
+                int length = buf.getInt();
+                if (buf.getLong() != hash || length != bytes.length) {
+                    continue;
+                }
+                byte[] stored = new byte[length];
+                messages.seek(offset);
+                messages.readFully(stored);
+                if (Arrays.equals(stored, bytes)) {
+                    matches.add(value - 1);
+                }
+            }
+            matches.sort(null);
+            List<String> ids = new ArrayList<>(matches.size());
+            for (int match : matches) {
+                log.seek(HEADER + (long) match * ROW);
+                log.readFully(row, 0, RAW_UID_LENGTH);
+                ids.add(hexId(row, 0));
+            }
+            return ids;
+        } catch (IOException e) {
+            throw error("Could not read file " + INDEX.toPath());
+        }
+    }
+
+    /** Passes every commit of the log to VISITOR, in the order saved, reading
+     *  the log and the messages sequentially. */
+    void forEach(Visitor visitor) {
+        forEach(0, visitor);
+    }
+
+    /** Passes the commits of the log from row FROM on to VISITOR, in the order
+     *  saved. */
+    void forEach(int from, Visitor visitor) {
+        try (DataInputStream log = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(LOG), STREAM_BUFFER));
+             DataInputStream messages = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(MESSAGES), STREAM_BUFFER))) {
+            log.skipNBytes(HEADER + (long) from * ROW);
+            byte[] id = new byte[RAW_UID_LENGTH];
+            long position = 0;
+            for (int row = from; row < size; row += 1) {
+                log.readFully(id);
+                long timestamp = log.readLong();
+                long offset = log.readLong();
+                byte[] message = new byte[log.readInt()];
+                log.readLong();
+                // messages cut short by an interrupted write leave gaps
+                messages.skipNBytes(offset - position);
+                messages.readFully(message);
+                position = offset + message.length;
+                visitor.visit(row, hexId(id, 0), timestamp,
+                        new String(message, StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw error("Could not read file " + LOG.toPath());
+        }
+    }
+
+    /**
+     * Lists commits of the log, most recent first.
+     * @param rows: rows of the commits.
+     * @return their ids, by decreasing timestamp, and of equal timestamps the
+     *         one saved last first.
+     */
+    List<String> mostRecentFirst(BitSet rows) {
+        int count = rows.cardinality();
+        int[] found = new int[count];
+        long[] timestamps = new long[count];
+        String[] ids = new String[count];
+        int k = 0;
+        try (RandomAccessFile log = new RandomAccessFile(LOG, "r")) {
+            byte[] row = new byte[RAW_UID_LENGTH + 8];
+            for (int r = rows.nextSetBit(0); r >= 0 && r < size; r = rows.nextSetBit(r + 1)) {
+                log.seek(HEADER + (long) r * ROW);
+                log.readFully(row);
+                found[k] = r;
+                ids[k] = hexId(row, 0);
+                timestamps[k] = ByteBuffer.wrap(row).getLong(RAW_UID_LENGTH);
+                k += 1;
+            }
+        } catch (IOException e) {
+            throw error("Could not read file " + LOG.toPath());
+        }
+        Integer[] order = new Integer[k];
+        for (int i = 0; i < k; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> (timestamps[a] != timestamps[b])
+                ? Long.compare(timestamps[b], timestamps[a]) : Integer.compare(found[b], found[a]));
+        List<String> result = new ArrayList<>(k);
+        for (int i : order) {
+            result.add(ids[i]);
+        }
+        return result;
+    }
+
+    /** Reads the row count of the log, dropping a row cut short by an
+     *  interrupted write, and rebuilds the index if it is out of date. */
+    private void open() {
+        long length = LOG.length();
+        if (length < HEADER) {
+            throw error("Unrecognized commit log %s.", LOG.getPath());
+        }
+        size = (int) ((length - HEADER) / ROW);
+        if (HEADER + (long) size * ROW < length) {
+            try (RandomAccessFile log = new RandomAccessFile(LOG, "rw")) {
+                log.setLength(HEADER + (long) size * ROW);
+            } catch (IOException e) {
+                throw error("Could not write file " + LOG.toPath());
+            }
+        }
+        try (RandomAccessFile index = new RandomAccessFile(INDEX, "r")) {
+            if (index.readInt() == INDEX_MAGIC && index.readInt() == VERSION
+                    && index.readInt() == size) {
+                slots = (int) ((index.length() - INDEX_HEADER) / 4);
+                return;
+            }
+        } catch (IOException e) {
+            // missing or cut short, rebuilt below
+        }
+        rebuildIndex(slotsFor(size));
+    }
+
+    /** Writes an empty log and adds the commits already in the object store,
+     *  oldest first. */
+    private void create() {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(LOG))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        } catch (IOException e) {
+            throw error("Could not write file " + LOG.toPath());
+        }
+        writeContents(MESSAGES, (Object) new byte[0]);
+        rebuildIndex(MIN_SLOTS);
+        List<String> commitIds = new ArrayList<>();
+        for (String commitId : ObjectStore.idsWithPrefix(ObjectStore.COMMIT, "")) {
+            if (Commit.fromObject(commitId) != null) {
+                commitIds.add(commitId);
+            }
+        }
+        commitIds.sort(Comparator.comparingLong(
+                (String commitId) -> Commit.fromObject(commitId).getTimestamp())
+                .thenComparing(Comparator.naturalOrder()));
+        for (String commitId : commitIds) {
+            add(commitId, Commit.fromObject(commitId));
+        }
+    }
+
+    /** Writes a hash index of CAPACITY slots for every row of the log, reading
+     *  the message hashes from the log. */
+    private void rebuildIndex(int capacity) {
+        int[] table = new int[capacity];
+        try (DataInputStream log = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(LOG), STREAM_BUFFER))) {
+            log.skipNBytes(HEADER);
+            for (int row = 0; row < size; row += 1) {
+                log.skipNBytes(ROW - 8);
+                int slot = (int) (log.readLong() & (capacity - 1));
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                table[slot] = row + 1;
+            }
+        } catch (IOException e) {
+            throw error("Could not read file " + LOG.toPath());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(INDEX), STREAM_BUFFER))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int value : table) {
+                out.writeInt(value);
+            }
+        } catch (IOException e) {
+            throw error("Could not write file " + INDEX.toPath());
+        }
+        slots = capacity;
+    }
+
+    /** Returns the smallest power of two of at least MIN_SLOTS slots that
+     *  holds ROWS at most half full. */
+    private static int slotsFor(int rows) {
+        int capacity = MIN_SLOTS;
+        while (capacity < 2L * rows) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /** Returns the first slot to probe for a message with HASH. */
+    private int slotOf(long hash) {
+        return (int) (hash & (slots - 1));
+    }
+
+    /** Returns the value of SLOT of INDEX. */
+    private static int readSlot(RandomAccessFile index, int slot) throws IOException {
+        index.seek(INDEX_HEADER + 4L * slot);
+        return index.readInt();
+    }
+
+    /** Returns the hash of the UTF-8 message MESSAGE. */
+    private static long hashOf(byte[] message) {
+        return ByteBuffer.wrap(rawId(sha1((Object) message))).getLong();
+    }
+}
@@ -0,0 +1,85 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Properties;
+
+import static gitlet.Utils.*;
+
+/** Settings of a gitlet repository, stored as key=value lines in .gitlet/config.
+ *  Any setting can be overridden for one invocation with a Java system property
+ *  of the same name prefixed by "gitlet.", for example
+ *      java -Dgitlet.delta.depth=10 gitlet.Main commit "message"
+ *  @author Sophia Xia
+ */
+class Config {
+
+    /** File that settings are stored in. */
+    static final File CONFIG = join(Repository.GITLET_DIR, "config");
+
+    /** Settings read from CONFIG, null until first needed. */
+    private static Properties properties;
+
+    /** Returns the value of setting KEY, or DEFAULTVALUE if it is not set. */
+    static String get(String key, String defaultValue) {
+        String override = System.getProperty("gitlet." + key);
+        if (override != null) {
+            return override;
+        }
+        return load().getProperty(key, defaultValue);
+    }
+
+    /** Returns the integer value of setting KEY, or DEFAULTVALUE if it is not set. */
+    static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw error("Setting %s must be an integer.", key);
+        }
+    }
+
+    /** Returns true iff setting KEY is "true", or DEFAULTVALUE if it is not set. */
+    static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return (value == null) ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /** Sets KEY to VALUE in CONFIG. */
+    static synchronized void set(String key, String value) {
+        Properties settings = load();
+        settings.setProperty(key, value);
+        try (Writer out = new FileWriter(CONFIG)) {
+            settings.store(out, null);
+        } catch (IOException e) {
+            throw error("Could not write file " + CONFIG.toPath());
+        }
+    }
+
+    /** Reads CONFIG on first use. */
+    private static synchronized Properties load() {
+        if (properties == null) {
+            properties = new Properties();
+            if (CONFIG.isFile()) {
+                try (Reader in = new FileReader(CONFIG)) {
+                    properties.load(in);
+                } catch (IOException e) {
+                    throw error("Could not read file " + CONFIG.toPath());
+                }
+            }
+        }
+        return properties;
+    }
+
+    /** Forgets the settings read, so the next use reads CONFIG again. */
+    static synchronized void unload() {
+        properties = null;
+    }
+}
@@ -0,0 +1,319 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A long-lived gitlet process that runs the commands of others, started by
+ *  `gitlet daemon` in the working directory of a repository and stopped by
+ *  `gitlet daemon stop`. It listens on the Unix domain socket
+ *  .gitlet/daemon.sock, and a gitlet started in the same directory sends it
+ *  its arguments instead of running the command itself, then prints what
+ *  comes back. Commands run one at a time and what they load stays loaded for
+ *  the next one: decoded commits and trees, the staging index, stat cache and
+ *  settings, the commit graph, log and bitmaps, the search index and the pack
+ *  mapping. So a command costs neither a JVM start nor the reading of those
+ *  files. Before each command the size and modification time of the files
+ *  below .gitlet, refs and packs included, and of the fan-out folders of
+ *  loose objects, which change whenever an object is added to them, are
+ *  compared with what the daemon left, and if another process changed any of
+ *  them everything is loaded again, as it is after a command that failed. Working files are
+ *  watched for changes, see WorkTree; with `gitlet config daemon.forward
+ *  false` the daemon only watches, and every gitlet runs its own command.
+ *  A request is
+ *      magic (int) | version (int) | console (boolean) | argument count (int)
+ *      | per argument: length (int) | UTF-8 bytes
+ *  where console says whether the client runs in a terminal, and the answer is
+ *  a series of frames, OUT or ERR (byte) | length (int) | bytes for what the
+ *  command prints on standard output or error, then DONE (byte).
+ *  A gitlet started with a `-Dgitlet.` setting override runs by itself, and so
+ *  do the commands that use the standard streams of their own process.
+ *  @author Sophia Xia
+ */
+class Daemon {
+
+    /** Socket that the daemon listens on. */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    private static final int MAGIC = 0x4744534b; // "GDSK"
+
+    private static final int VERSION = 1;
+
+    private static final byte DONE = 0;
+
+    private static final byte OUT = 1;
+
+    private static final byte ERR = 2;
+
+    /** Commands that always run in the process they were started in. */
+    private static final Set<String> LOCAL = Set.of("init", "daemon", "upload-pack",
+            "receive-pack");
+
+    /** Whether the client of the command being run has a terminal, null
+     *  outside the daemon. */
+    private static Boolean clientConsole;
+
+    /** Returns true iff whoever started the current command can see its
+     *  output in a terminal. */
+    static boolean console() {
+        return (clientConsole != null) ? clientConsole : System.console() != null;
+    }
+
+    /**
+     * Runs a command in the daemon of this repository, if one is running.
+     * @param args: the arguments gitlet was started with.
+     * @return true iff the daemon ran the command, and its output is printed.
+     */
+    static boolean forward(String[] args) {
+        if (args.length == 0 || (LOCAL.contains(args[0]) && !isStop(args))
+                || !SOCKET.exists() || System.getProperties().stringPropertyNames().stream()
+                .anyMatch(key -> key.startsWith("gitlet."))
+                || !(isStop(args) || Config.getBoolean("daemon.forward", true))) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException e) {
+            return false; // left behind by a daemon that was killed
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), STREAM_BUFFER));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeBoolean(System.console() != null);
+            out.writeInt(args.length);
+            for (String arg : args) {
+                byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel), STREAM_BUFFER));
+            for (byte type = in.readByte(); type != DONE; type = in.readByte()) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                ((type == ERR) ? System.err : System.out).write(bytes);
+            }
+            System.out.flush();
+            System.err.flush();
+        } catch (IOException e) {
+            System.out.println("Lost connection to the gitlet daemon.");
+        }
+        return true;
+    }
+
+    /**
+     * Supporting command `gitlet daemon`.
+     * Serves the commands of the repository in this directory until `gitlet
+     * daemon stop`.
+     */
+    static void serve() {
+        if (!Repository.GITLET_DIR.exists()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        if (SOCKET.exists()) {
+            if (isListening()) {
+                throw error("A daemon is already running.");
+            }
+            Repository.deleteIfExists(SOCKET);
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            WorkTree.watch();
+            Map<String, String> stamps = stamps();
+            boolean stop = false;
+            while (!stop) {
+                try (SocketChannel client = server.accept()) {
+                    stop = serveClient(client, stamps);
+                } catch (IOException e) {
+                    unloadAll(); // the client left during its command
+                }
+                stamps = stamps();
+            }
+        } catch (IOException e) {
+            throw error("Could not listen on " + SOCKET.getPath());
+        } finally {
+            WorkTree.unwatch();
+            Repository.deleteIfExists(SOCKET);
+        }
+    }
+
+    /**
+     * Runs the command of one client.
+     * @param client: connection to the client.
+     * @param stamps: stamps of the files of .gitlet after the last command.
+     * @return true iff the command was `gitlet daemon stop`.
+     */
+    private static boolean serveClient(SocketChannel client, Map<String, String> stamps)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(client), STREAM_BUFFER));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            return false;
+        }
+        boolean console = in.readBoolean();
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            args[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), STREAM_BUFFER));
+        if (isStop(args)) {
+            out.writeByte(DONE);
+            out.flush();
+            return true;
+        }
+        if (!stamps.equals(stamps())) {
+            unloadAll();
+        }
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream commandOut = new PrintStream(new BufferedOutputStream(
+                new Frames(out, OUT), STREAM_BUFFER));
+        PrintStream commandErr = new PrintStream(new BufferedOutputStream(
+                new Frames(out, ERR), STREAM_BUFFER));
+        System.setOut(commandOut);
+        System.setErr(commandErr);
+        clientConsole = console;
+        try {
+            if (!Main.run(args)) {
+                unloadAll();
+            }
+        } catch (RuntimeException e) {
+            // reported to the client as Main reports the errors of a command
+            System.out.println((e.getMessage() == null) ? e.toString() : e.getMessage());
+            unloadAll();
+        } finally {
+            clientConsole = null;
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        commandErr.flush();
+        commandOut.flush();
+        if (commandOut.checkError() || commandErr.checkError()) {
+            throw new IOException("Could not answer the client.");
+        }
+        out.writeByte(DONE);
+        out.flush();
+        return false;
+    }
+
+    /** Returns true iff a daemon accepts connections on SOCKET. */
+    private static boolean isListening() {
+        try (SocketChannel channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(SOCKET.toPath()))) {
+            return channel.isConnected();
+        } catch (IOException e) {
+            return false; // left behind by a daemon that was killed
+        }
+    }
+
+    /** Returns true iff ARGS are those of `gitlet daemon stop`. */
+    private static boolean isStop(String[] args) {
+        return args.length == 2 && args[0].equals("daemon") && args[1].equals("stop");
+    }
+
+    /** Forgets everything that commands loaded and did not save, so the next
+     *  command reads it again. Decoded commits and trees stay, since objects
+     *  never change. */
+    private static void unloadAll() {
+        Journal.discard();
+        StagingIndex.unload();
+        StatCache.unload();
+        Config.unload();
+        Reachability.unload();
+        CommitGraph.unload();
+        SearchIndex.unload();
+        CommitLog.unload();
+        PackFile.unload();
+    }
+
+    /** Returns the size and modification time of each file below .gitlet and
+     *  of each fan-out folder of loose objects, by path, but for the files of
+     *  the daemon and its watcher. Objects are never changed once written, so
+     *  a folder whose time is unchanged holds the same objects. */
+    private static Map<String, String> stamps() {
+        Map<String, String> stamps = new HashMap<>();
+        stamp(Repository.GITLET_DIR, stamps);
+        return stamps;
+    }
+
+    /** Adds the stamps of FILE, or of the files and fan-out folders below the
+     *  folder FILE, to STAMPS. */
+    private static void stamp(File file, Map<String, String> stamps) {
+        if (file.equals(SOCKET) || file.equals(WorkTree.JOURNAL)
+                || file.getName().startsWith(WorkTree.SYNC_PREFIX)) {
+            return;
+        }
+        File parent = file.getParentFile();
+        boolean fanOut = parent != null && Commit.OBJECT_FOLDER.equals(parent.getParentFile())
+                && !parent.equals(PackFile.PACK_FOLDER) && file.isDirectory();
+        File[] files = fanOut ? null : file.listFiles();
+        if (files != null) {
+            for (File below : files) {
+                stamp(below, stamps);
+            }
+            return;
+        }
+        try {
+            stamps.put(file.getPath(), file.length() + " " + Files.getLastModifiedTime(
+                    file.toPath()).to(TimeUnit.NANOSECONDS));
+        } catch (IOException e) {
+            stamps.put(file.getPath(), ""); // deleted while listed
+        }
+    }
+
+    /** Sends what is written to it to the client as frames of one TYPE. */
+    private static class Frames extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        Frames(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > 0) {
+                out.writeByte(type);
+                out.writeInt(length);
+                out.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Binary deltas between two versions of a file.
+ *  A delta starts with a fixed header
+ *      raw base blob id (20 bytes) | chain depth (int) | result length (int)
+ *  followed by instructions that rebuild the result from the base:
+ *      COPY offset length      -- copy LENGTH bytes of the base from OFFSET
+ *      INSERT length bytes     -- insert the next LENGTH literal bytes
+ *  Matches are found by hashing fixed-size blocks of the base and rolling the
+ *  same hash over every position of the result.
+ *  @author Sophia Xia
+ */
+class Delta {
+
+    private static final int HEADER = RAW_UID_LENGTH + 8;
+
+    private static final byte COPY = 0;
+
+    private static final byte INSERT = 1;
+
+    /** Size of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the polynomial rolling hash. */
+    private static final int PRIME = 31;
+
+    /** PRIME to the power BLOCK - 1, dropping the leading byte of a window. */
+    private static final int LEAD;
+
+    static {
+        int lead = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            lead *= PRIME;
+        }
+        LEAD = lead;
+    }
+
+    /**
+     * Encodes TARGET as a delta against BASE.
+     * @param baseId: blob id of BASE.
+     * @param depth: length of the delta chain ending at the new delta.
+     * @param base: contents of the base version.
+     * @param target: contents of the new version.
+     * @return the encoded delta.
+     */
+    static byte[] create(String baseId, int depth, byte[] base, byte[] target) {
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(rawId(baseId));
+            out.writeInt(depth);
+            out.writeInt(target.length);
+            int insertStart = 0;
+            int i = 0;
+            int h = (target.length >= BLOCK) ? hash(target, 0) : 0;
+            while (i + BLOCK <= target.length) {
+                Integer candidate = blocks.get(h);
+                if (candidate != null && Arrays.equals(base, candidate, candidate + BLOCK,
+                        target, i, i + BLOCK)) {
+                    int s = candidate;
+                    int t = i;
+                    while (s > 0 && t > insertStart && base[s - 1] == target[t - 1]) {
+                        s -= 1;
+                        t -= 1;
+                    }
+                    int end = i + BLOCK;
+                    int baseEnd = candidate + BLOCK;
+                    while (end < target.length && baseEnd < base.length
+                            && base[baseEnd] == target[end]) {
+                        end += 1;
+                        baseEnd += 1;
+                    }
+                    writeInsert(out, target, insertStart, t);
+                    out.writeByte(COPY);
+                    out.writeInt(s);
+                    out.writeInt(end - t);
+                    i = end;
+                    insertStart = end;
+                    if (i + BLOCK <= target.length) {
+                        h = hash(target, i);
+                    }
+                } else {
+                    if (i + BLOCK < target.length) {
+                        h = (h - target[i] * LEAD) * PRIME + target[i + BLOCK];
+                    }
+                    i += 1;
+                }
+            }
+            writeInsert(out, target, insertStart, target.length);
+            out.close();
+        } catch (IOException e) {
+            throw error("Internal error encoding delta.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Rebuilds the version of a file that DELTA encodes against BASE.
+     * @return the contents of the new version.
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        byte[] result = new byte[resultLength(delta)];
+        in.position(HEADER);
+        int pos = 0;
+        while (in.hasRemaining()) {
+            byte op = in.get();
+            if (op == COPY) {
+                int offset = in.getInt();
+                int length = in.getInt();
+                System.arraycopy(base, offset, result, pos, length);
+                pos += length;
+            } else {
+                int length = in.getInt();
+                in.get(result, pos, length);
+                pos += length;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the blob id of the base version of DELTA. */
+    static String baseId(byte[] delta) {
+        return hexId(delta, 0);
+    }
+
+    /** Returns the length of the delta chain that ends at DELTA. */
+    static int depth(byte[] delta) {
+        return ByteBuffer.wrap(delta).getInt(RAW_UID_LENGTH);
+    }
+
+    /** Returns the length of the contents that DELTA rebuilds. */
+    static int resultLength(byte[] delta) {
+        return ByteBuffer.wrap(delta).getInt(RAW_UID_LENGTH + 4);
+    }
+
+    /** Writes an INSERT of TARGET[FROM..TO) to OUT, unless it is empty. */
+    private static void writeInsert(DataOutputStream out, byte[] target, int from, int to)
+            throws IOException {
+        if (to > from) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Returns the rolling hash of the BLOCK bytes of DATA starting at FROM. */
+    private static int hash(byte[] data, int from) {
+        int h = 0;
+        for (int i = from; i < from + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+}
@@ -0,0 +1,264 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** A write-ahead journal that makes the ref and staging updates of one command
+ *  atomic. While a command runs its updates are only recorded; commit first
+ *  syncs the objects that the command wrote, then writes the updates to
+ *  .gitlet/journal and syncs it, then applies them, syncs the files and
+ *  folders they changed and deletes the journal. Syncing the journal alone
+ *  would not do, since a deleted journal can no longer be replayed, but a
+ *  folder is only synced when a file was added to or removed from it.
+ *  The journal is a magic number and version, then records
+ *      WRITE  (byte) | path length (int) | UTF-8 path | length (int) | contents
+ *      DELETE (byte) | path length (int) | UTF-8 path
+ *      CLEAR  (byte) | path length (int) | UTF-8 path of a staging folder
+ *  and finally COMMIT (byte) and the CRC-32 (long) of everything before it,
+ *  with paths relative to .gitlet. A journal left by a command that crashed is
+ *  replayed at the next start if it is complete, since every record can be
+ *  applied twice, and discarded otherwise, since nothing was applied yet.
+ *  Objects are content-addressed and durable before the journal is written,
+ *  so a ref never names a lost object, and a discarded journal leaves at most
+ *  unreferenced objects behind.
+ *  Reads of refs go through pending writes; the staging index is read once per
+ *  command and kept in memory, and staging folders of older repositories are
+ *  only cleared after their contents were moved into it.
+ *  @author Sophia Xia
+ */
+class Journal {
+
+    /** File that a committed transaction is stored in until it is applied. */
+    static final File JOURNAL = join(Repository.GITLET_DIR, "journal");
+
+    private static final int MAGIC = 0x474a4e4c; // "GJNL"
+
+    private static final int VERSION = 1;
+
+    private static final byte WRITE = 1;
+
+    private static final byte DELETE = 2;
+
+    private static final byte CLEAR = 3;
+
+    private static final byte COMMIT = 4;
+
+    /** Updates recorded by this command, in order. */
+    private static final List<Record> RECORDS = new ArrayList<>();
+
+    /** Contents of each file written by this command, null if it was deleted. */
+    private static final Map<File, byte[]> PENDING = new HashMap<>();
+
+    /** One recorded update. */
+    private static class Record {
+        private final byte op;
+        private final String path;
+        private final byte[] contents;
+
+        Record(byte op, String path, byte[] contents) {
+            this.op = op;
+            this.path = path;
+            this.contents = contents;
+        }
+    }
+
+    /** Records that FILE is to be replaced by CONTENTS. */
+    static void write(File file, String contents) {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Records that FILE is to be replaced by BYTES. */
+    static void write(File file, byte[] bytes) {
+        RECORDS.add(new Record(WRITE, pathOf(file), bytes));
+        PENDING.put(file, bytes);
+    }
+
+    /** Records that FILE is to be deleted. */
+    static void delete(File file) {
+        RECORDS.add(new Record(DELETE, pathOf(file), null));
+        PENDING.put(file, null);
+    }
+
+    /** Records that every file below the staging folder FOLDER is to be deleted. */
+    static void clear(File folder) {
+        RECORDS.add(new Record(CLEAR, pathOf(folder), null));
+    }
+
+    /** Returns the contents of FILE as this command left them, or null if it
+     *  does not exist. */
+    static String readString(File file) {
+        if (PENDING.containsKey(file)) {
+            byte[] bytes = PENDING.get(file);
+            return (bytes == null) ? null : new String(bytes, StandardCharsets.UTF_8);
+        }
+        return file.isFile() ? readContentsAsString(file) : null;
+    }
+
+    /** Makes the objects written by this command and the recorded updates
+     *  durable, then applies the updates and makes them durable in place. */
+    static void commit() {
+        if (RECORDS.isEmpty()) {
+            return;
+        }
+        ObjectStore.sync();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Record record : RECORDS) {
+                byte[] path = record.path.getBytes(StandardCharsets.UTF_8);
+                out.writeByte(record.op);
+                out.writeInt(path.length);
+                out.write(path);
+                if (record.op == WRITE) {
+                    out.writeInt(record.contents.length);
+                    out.write(record.contents);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeByte(COMMIT);
+            out.writeLong(crc.getValue());
+        } catch (IOException e) {
+            throw error("Could not write file " + JOURNAL.toPath());
+        }
+        try (FileOutputStream out = new FileOutputStream(JOURNAL)) {
+            out.write(bytes.toByteArray());
+            out.getChannel().force(true);
+        } catch (IOException e) {
+            throw error("Could not write file " + JOURNAL.toPath());
+        }
+        force(Repository.GITLET_DIR);
+        apply(RECORDS);
+        RECORDS.clear();
+        PENDING.clear();
+        Repository.deleteIfExists(JOURNAL);
+    }
+
+    /** Drops the updates recorded by a command that failed. */
+    static void discard() {
+        RECORDS.clear();
+        PENDING.clear();
+    }
+
+    /** Finishes the transaction of a command that did not complete: replays its
+     *  journal if it was committed, discards it otherwise. */
+    static void recover() {
+        if (!JOURNAL.isFile()) {
+            return;
+        }
+        List<Record> records = read(readContents(JOURNAL));
+        if (records != null) {
+            apply(records);
+        }
+        Repository.deleteIfExists(JOURNAL);
+    }
+
+    /** Returns the records of the encoded journal BYTES, or null unless it is
+     *  complete and intact. */
+    private static List<Record> read(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        List<Record> records = new ArrayList<>();
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            while (true) {
+                int start = buf.position();
+                byte op = buf.get();
+                if (op == COMMIT) {
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes, 0, start);
+                    return (buf.getLong() == crc.getValue()) ? records : null;
+                }
+                int length = buf.getInt();
+                String path = new String(bytes, buf.position(), length, StandardCharsets.UTF_8);
+                buf.position(buf.position() + length);
+                byte[] contents = null;
+                if (op == WRITE) {
+                    contents = new byte[buf.getInt()];
+                    buf.get(contents);
+                }
+                records.add(new Record(op, path, contents));
+            }
+        } catch (RuntimeException e) {
+            return null; // cut short before COMMIT
+        }
+    }
+
+    /** Applies RECORDS in order, then syncs every file written and every
+     *  folder that a file was added to or removed from, .gitlet last. Once the
+     *  journal is deleted nothing can replay it, so the applied files must be
+     *  durable first. Applying them again has no further effect. */
+    private static void apply(List<Record> records) {
+        Set<File> changed = new LinkedHashSet<>();
+        for (Record record : records) {
+            File file = join(Repository.GITLET_DIR, record.path);
+            switch (record.op) {
+                case WRITE:
+                    if (!file.exists()) {
+                        file.getParentFile().mkdirs();
+                        changed.add(file.getParentFile());
+                    }
+                    writeContents(file, (Object) record.contents);
+                    changed.add(file);
+                    break;
+                case DELETE:
+                    if (file.exists()) {
+                        Repository.deleteIfExists(file);
+                        changed.add(file.getParentFile());
+                    }
+                    break;
+                case CLEAR:
+                    Repository.deleteFilesIn(file);
+                    changed.add(file);
+                    break;
+                default:
+                    throw error("Unknown journal record %d.", record.op);
+            }
+        }
+        changed.remove(Repository.GITLET_DIR);
+        changed.add(Repository.GITLET_DIR);
+        for (File file : changed) {
+            force(file);
+        }
+    }
+
+    /** Syncs the contents of FILE, or the entries of the folder FILE, to the
+     *  disk. A folder is skipped where the platform cannot open one to sync it. */
+    static void force(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        boolean folder = file.isDirectory();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                folder ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!folder) {
+                throw error("Could not write file " + file.toPath());
+            }
+        }
+    }
+
+    /** Returns the path of FILE relative to .gitlet. */
+    private static String pathOf(File file) {
+        return Repository.GITLET_DIR.toPath().relativize(file.toPath()).toString();
+    }
+}
@@ -0,0 +1,360 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** Line diffs of text files by Myers' O(ND) algorithm.
+ *  Lines are split off the raw bytes of a file and interned: each distinct
+ *  line gets an int id, found by a 64-bit hash of its bytes and confirmed by
+ *  comparing the bytes, so a diff compares ints and no String is built. The
+ *  common prefix and suffix are matched first, and lines that occur in only
+ *  one of the two files are set aside, since they cannot match. On what is
+ *  left the linear-space variant finds the middle snake of a shortest edit
+ *  script and recurses on both sides of it. A search for the middle snake
+ *  that has gone past COST edits, about the square root of the number of
+ *  lines, stops there and splits at the furthest point it reached, so files
+ *  with little in common take time N * COST rather than N * D, at the price of
+ *  an edit script that may not be the shortest.
+ *  @author Sophia Xia
+ */
+class LineDiff {
+
+    /** Least cost of a middle snake search before it settles for a split. */
+    private static final int MIN_COST = 256;
+
+    /** Number of leading bytes searched for a NUL to tell binary files. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** The lines of one file. */
+    static class Lines {
+        /** Contents of the file. */
+        final byte[] bytes;
+        /** Offset of the start of each line, then the length of the file. */
+        private final int[] starts;
+        /** Interned id of each line. */
+        final int[] ids;
+
+        private Lines(byte[] bytes, int[] starts, int[] ids) {
+            this.bytes = bytes;
+            this.starts = starts;
+            this.ids = ids;
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return ids.length;
+        }
+
+        /** Returns the offset of line K, or the length of the file if K is size(). */
+        int start(int k) {
+            return starts[k];
+        }
+    }
+
+    /** Gives each distinct line of the files it splits an id, the same in all of them. */
+    static class Interner {
+        /** Open-addressed table of id + 1, 0 in a free slot. */
+        private int[] table = new int[1 << 10];
+        private long[] hashes = new long[1 << 9];
+        private byte[][] owners = new byte[1 << 9][];
+        private int[] offsets = new int[1 << 9];
+        private int[] lengths = new int[1 << 9];
+        private int size;
+
+        /** Splits BYTES into lines, each ending after a '\n' or at the end of
+         *  the file, and interns them. */
+        Lines split(byte[] bytes) {
+            int count = 0;
+            for (byte b : bytes) {
+                count += (b == '\n') ? 1 : 0;
+            }
+            if (bytes.length > 0 && bytes[bytes.length - 1] != '\n') {
+                count += 1;
+            }
+            int[] starts = new int[count + 1];
+            int[] ids = new int[count];
+            int k = 0;
+            int start = 0;
+            long hash = FNV_OFFSET;
+            for (int i = 0; i < bytes.length; i += 1) {
+                hash = (hash ^ (bytes[i] & 0xff)) * FNV_PRIME;
+                if (bytes[i] == '\n' || i == bytes.length - 1) {
+                    starts[k] = start;
+                    ids[k] = intern(bytes, start, i + 1, hash);
+                    k += 1;
+                    start = i + 1;
+                    hash = FNV_OFFSET;
+                }
+            }
+            starts[count] = bytes.length;
+            return new Lines(bytes, starts, ids);
+        }
+
+        /** Returns the number of distinct lines interned. */
+        int size() {
+            return size;
+        }
+
+        /** Returns the id of the line BYTES[START, END) whose hash is HASH. */
+        private int intern(byte[] bytes, int start, int end, long hash) {
+            int mask = table.length - 1;
+            for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+                int id = table[slot] - 1;
+                if (id < 0) {
+                    return add(bytes, start, end, hash, slot);
+                }
+                if (hashes[id] == hash && lengths[id] == end - start
+                        && Arrays.equals(owners[id], offsets[id], offsets[id] + lengths[id],
+                                bytes, start, end)) {
+                    return id;
+                }
+            }
+        }
+
+        /** Adds a new line at SLOT and returns its id. */
+        private int add(byte[] bytes, int start, int end, long hash, int slot) {
+            int id = size;
+            if (id == hashes.length) {
+                int length = 2 * id;
+                hashes = Arrays.copyOf(hashes, length);
+                owners = Arrays.copyOf(owners, length);
+                offsets = Arrays.copyOf(offsets, length);
+                lengths = Arrays.copyOf(lengths, length);
+            }
+            hashes[id] = hash;
+            owners[id] = bytes;
+            offsets[id] = start;
+            lengths[id] = end - start;
+            size += 1;
+            table[slot] = id + 1;
+            if (2 * size > table.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        /** Doubles the table, keeping it at most half full. */
+        private void rehash() {
+            table = new int[2 * table.length];
+            int mask = table.length - 1;
+            for (int id = 0; id < size; id += 1) {
+                int slot = spread(hashes[id]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = id + 1;
+            }
+        }
+
+        private static int spread(long hash) {
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Returns true iff CONTENTS has a NUL byte among its first bytes, as
+     *  binary files do and text files do not. */
+    static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, BINARY_PROBE); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches the lines of two files with a shortest edit script, or a short
+     * one where they have little in common.
+     * @param a: interned ids of the lines of the first file.
+     * @param b: interned ids of the lines of the second file.
+     * @return for each line of A, the index of the line of B it is kept as, or
+     *         -1 if it is deleted; the indices that are not -1 increase.
+     */
+    static int[] match(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        Arrays.fill(result, -1);
+        int lo = 0;
+        while (lo < a.length && lo < b.length && a[lo] == b[lo]) {
+            result[lo] = lo;
+            lo += 1;
+        }
+        int aHi = a.length;
+        int bHi = b.length;
+        while (aHi > lo && bHi > lo && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            result[aHi] = bHi;
+        }
+        if (lo == aHi || lo == bHi) {
+            return result;
+        }
+        BitSet inA = new BitSet();
+        BitSet inB = new BitSet();
+        for (int i = lo; i < aHi; i += 1) {
+            inA.set(a[i]);
+        }
+        for (int j = lo; j < bHi; j += 1) {
+            inB.set(b[j]);
+        }
+        int[] keptA = kept(a, lo, aHi, inB);
+        int[] keptB = kept(b, lo, bHi, inA);
+        if (keptA.length == 0 || keptB.length == 0) {
+            return result;
+        }
+        Myers myers = new Myers(idsAt(a, keptA), idsAt(b, keptB));
+        for (int i = 0; i < keptA.length; i += 1) {
+            int j = myers.matches[i];
+            if (j >= 0) {
+                result[keptA[i]] = keptB[j];
+            }
+        }
+        return result;
+    }
+
+    /** Returns the indices in [LO, HI) of the lines of IDS that OTHER has. */
+    private static int[] kept(int[] ids, int lo, int hi, BitSet other) {
+        int[] indices = new int[hi - lo];
+        int count = 0;
+        for (int i = lo; i < hi; i += 1) {
+            if (other.get(ids[i])) {
+                indices[count] = i;
+                count += 1;
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    /** Returns the ids at INDICES of IDS. */
+    private static int[] idsAt(int[] ids, int[] indices) {
+        int[] result = new int[indices.length];
+        for (int i = 0; i < indices.length; i += 1) {
+            result[i] = ids[indices[i]];
+        }
+        return result;
+    }
+
+    /** The divide-and-conquer search over two sequences of line ids. */
+    private static class Myers {
+        private final int[] a;
+        private final int[] b;
+        /** For each line of a, the line of b it matches or -1. */
+        private final int[] matches;
+        /** Furthest x on each diagonal, forward and backward, at OFFSET + k. */
+        private final int[] forward;
+        private final int[] backward;
+        private final int offset;
+        private final int cost;
+
+        Myers(int[] a, int[] b) {
+            this.a = a;
+            this.b = b;
+            matches = new int[a.length];
+            Arrays.fill(matches, -1);
+            offset = (a.length + b.length + 1) / 2 + 2;
+            forward = new int[2 * offset + 1];
+            backward = new int[2 * offset + 1];
+            cost = Math.max(MIN_COST, (int) Math.sqrt(a.length + b.length));
+            compare(0, a.length, 0, b.length);
+        }
+
+        /** Matches a[aLo, aHi) against b[bLo, bHi). */
+        private void compare(int aLo, int aHi, int bLo, int bHi) {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                matches[aLo] = bLo;
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+                matches[aHi] = bHi;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                return;
+            }
+            int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+            compare(aLo, snake[0], bLo, snake[1]);
+            for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+                matches[x] = y;
+            }
+            compare(snake[2], aHi, snake[3], bHi);
+        }
+
+        /** Returns the start and end {x, y, u, v} of the middle snake of the
+         *  edit graph of a[aLo, aHi) and b[bLo, bHi), or an empty snake at the
+         *  furthest point reached once the search has passed its cost. */
+        private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+                for (int k = -d; k <= d; k += 2) {
+                    boolean down = k == -d
+                            || (k != d && forward[offset + k - 1] < forward[offset + k + 1]);
+                    int x = down ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                    int y = x - k;
+                    int x0 = x;
+                    int y0 = y;
+                    while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    forward[offset + k] = x;
+                    int back = delta - k;
+                    if (odd && back >= -(d - 1) && back <= d - 1
+                            && x + backward[offset + back] >= n) {
+                        return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                    }
+                }
+                for (int k = -d; k <= d; k += 2) {
+                    boolean down = k == -d
+                            || (k != d && backward[offset + k - 1] < backward[offset + k + 1]);
+                    int x = down ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                    int y = x - k;
+                    int x0 = x;
+                    int y0 = y;
+                    while (x < n && y < m && a[aHi - x - 1] == b[bHi - y - 1]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    backward[offset + k] = x;
+                    int ahead = delta - k;
+                    if (!odd && ahead >= -d && ahead <= d
+                            && x + forward[offset + ahead] >= n) {
+                        return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                    }
+                }
+                if (d >= cost) {
+                    int[] split = furthest(d, n, m);
+                    if (split != null) {
+                        return new int[] {aLo + split[0], bLo + split[1],
+                            aLo + split[0], bLo + split[1]};
+                    }
+                }
+            }
+            throw new IllegalStateException("No middle snake found.");
+        }
+
+        /** Returns the point {x, y} inside the n by m edit graph that the
+         *  forward search reached with D edits and that is furthest from the
+         *  start, or null if there is none. */
+        private int[] furthest(int d, int n, int m) {
+            int[] best = null;
+            for (int k = -d; k <= d; k += 2) {
+                int x = forward[offset + k];
+                int y = x - k;
+                if (x <= n && y >= 0 && y <= m && (best == null || x + y > best[0] + best[1])) {
+                    best = new int[] {x, y};
+                }
+            }
+            return best;
+        }
+    }
+}
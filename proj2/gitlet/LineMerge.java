@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Three-way merge of text files, line by line, as diff3 does it.
+ *  The ours and theirs versions are each diffed against the base with
+ *  LineDiff. A base line that both keep is stable; between two stable lines
+ *  the three versions each have a chunk, possibly empty. A chunk changed on
+ *  one side only takes that side's lines, a chunk changed the same way on
+ *  both sides takes them once, and a chunk changed differently on the two
+ *  sides is a conflict, written as
+ *      <<<<<<< HEAD
+ *      ours
+ *      =======
+ *      theirs
+ *      >>>>>>>
+ *  Lines are copied from the bytes of the versions, so the result is
+ *  byte-exact outside the markers. A version with a NUL byte near its start is
+ *  binary and conflicts as a whole unless only one side changed it.
+ *  @author Sophia Xia
+ */
+class LineMerge {
+
+    private static final byte[] OURS = ("<<<<<<< HEAD" + System.lineSeparator())
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] SEPARATOR = ("=======" + System.lineSeparator())
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] THEIRS = (">>>>>>>" + System.lineSeparator())
+            .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Merges the changes that two versions made to their common version.
+     * @param base: contents at the split point, empty if the file was absent.
+     * @param ours: contents in the current branch, empty if it was deleted.
+     * @param theirs: contents in the given branch, empty if it was deleted.
+     * @param out: stream that the merged contents are written to.
+     * @return true iff some changes overlapped and were written as a conflict.
+     */
+    static boolean merge(byte[] base, byte[] ours, byte[] theirs, OutputStream out)
+            throws IOException {
+        if (LineDiff.isBinary(base) || LineDiff.isBinary(ours) || LineDiff.isBinary(theirs)) {
+            out.write(OURS);
+            out.write(ours);
+            out.write(SEPARATOR);
+            out.write(theirs);
+            out.write(THEIRS);
+            return true;
+        }
+        LineDiff.Interner interner = new LineDiff.Interner();
+        LineDiff.Lines o = interner.split(base);
+        LineDiff.Lines a = interner.split(ours);
+        LineDiff.Lines b = interner.split(theirs);
+        int[] toA = LineDiff.match(o.ids, a.ids);
+        int[] toB = LineDiff.match(o.ids, b.ids);
+        boolean conflict = false;
+        int oi = 0;
+        int ai = 0;
+        int bi = 0;
+        while (true) {
+            int stable = oi;
+            while (stable < o.size() && (toA[stable] < 0 || toB[stable] < 0)) {
+                stable += 1;
+            }
+            int aEnd = (stable < o.size()) ? toA[stable] : a.size();
+            int bEnd = (stable < o.size()) ? toB[stable] : b.size();
+            if (stable == oi && aEnd == ai && bEnd == bi) {
+                if (stable == o.size()) {
+                    return conflict;
+                }
+                write(out, o, oi, oi + 1);
+                oi += 1;
+                ai += 1;
+                bi += 1;
+                continue;
+            }
+            if (same(o, oi, stable, a, ai, aEnd)) {
+                write(out, b, bi, bEnd);
+            } else if (same(o, oi, stable, b, bi, bEnd) || same(a, ai, aEnd, b, bi, bEnd)) {
+                write(out, a, ai, aEnd);
+            } else {
+                conflict = true;
+                out.write(OURS);
+                write(out, a, ai, aEnd);
+                out.write(SEPARATOR);
+                write(out, b, bi, bEnd);
+                out.write(THEIRS);
+            }
+            oi = stable;
+            ai = aEnd;
+            bi = bEnd;
+        }
+    }
+
+    /** Returns true iff lines [XLO, XHI) of X are lines [YLO, YHI) of Y. */
+    private static boolean same(LineDiff.Lines x, int xLo, int xHi,
+                                LineDiff.Lines y, int yLo, int yHi) {
+        if (xHi - xLo != yHi - yLo) {
+            return false;
+        }
+        for (int i = 0; i < xHi - xLo; i += 1) {
+            if (x.ids[xLo + i] != y.ids[yLo + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes lines [LO, HI) of LINES to OUT. */
+    private static void write(OutputStream out, LineDiff.Lines lines, int lo, int hi)
+            throws IOException {
+        out.write(lines.bytes, lines.start(lo), lines.start(hi) - lines.start(lo));
+    }
+}
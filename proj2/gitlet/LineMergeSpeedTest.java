@@ -0,0 +1,132 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Performs a timing test of the three-way line merge on files of LINES
+ *  lines. Ours changes every 100th line, starting at line 10, and deletes
+ *  every 1000th, starting at line 900; theirs changes every 100th line,
+ *  starting at line 60, and inserts two lines after every 1000th, starting at
+ *  line 500. None of the changes overlap, so the merge must produce the file
+ *  with all of them and no conflict. Then three unrelated files of the same
+ *  size, made of the same few lines, are merged, which is where the cost
+ *  limit of the diff matters, and the edit scripts of LineDiff are checked to
+ *  be shortest on small random files against a quadratic longest common
+ *  subsequence table.
+ *  Usage: java gitlet.LineMergeSpeedTest [LINES] [ROUNDS]
+ *  @author Sophia Xia
+ */
+public class LineMergeSpeedTest {
+
+    /** Builds the versions and times the merges. ARGS optionally holds the
+     *  number of lines and of timed rounds. */
+    public static void main(String[] args) throws IOException {
+        int lines = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        byte[] base = version(lines, false, false);
+        byte[] ours = version(lines, true, false);
+        byte[] theirs = version(lines, false, true);
+        byte[] expected = version(lines, true, true);
+        System.out.printf("Versions of %d lines, %d bytes.%n", lines, base.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(expected.length);
+        boolean conflict = LineMerge.merge(base, ours, theirs, out); // warm-up
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r += 1) {
+            out.reset();
+            conflict = LineMerge.merge(base, ours, theirs, out);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9 / rounds;
+        System.out.printf("Non-overlapping changes: %.1f ms/merge, %.1f MB/s, conflict: %b,"
+                        + " result %s.%n", seconds * 1000, 3.0 * base.length / 1e6 / seconds,
+                conflict, Arrays.equals(out.toByteArray(), expected) ? "as expected" : "WRONG");
+
+        Random random = new Random(61);
+        byte[] unrelated = shuffled(lines, random);
+        byte[] left = shuffled(lines, random);
+        byte[] right = shuffled(lines, random);
+        start = System.nanoTime();
+        out.reset();
+        conflict = LineMerge.merge(unrelated, left, right, out);
+        seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Unrelated versions:      %.1f ms/merge, conflict: %b.%n",
+                seconds * 1000, conflict);
+
+        int mismatches = 0;
+        int cases = 2000;
+        for (int c = 0; c < cases; c += 1) {
+            int[] a = randomIds(random);
+            int[] b = randomIds(random);
+            int[] match = LineDiff.match(a, b);
+            int kept = 0;
+            int last = -1;
+            boolean valid = true;
+            for (int i = 0; i < a.length; i += 1) {
+                if (match[i] >= 0) {
+                    valid &= match[i] > last && a[i] == b[match[i]];
+                    last = match[i];
+                    kept += 1;
+                }
+            }
+            mismatches += (!valid || kept != longestCommonSubsequence(a, b)) ? 1 : 0;
+        }
+        System.out.printf("%d random diffs checked, %d not shortest.%n", cases, mismatches);
+    }
+
+    /** Returns the base version of LINES lines, with the changes of ours and of
+     *  theirs as OURS and THEIRS say. */
+    private static byte[] version(int lines, boolean ours, boolean theirs) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            if (ours && i % 1000 == 900) {
+                continue;
+            }
+            if (ours && i % 100 == 10) {
+                sb.append("ours changed line ").append(i).append('\n');
+            } else if (theirs && i % 100 == 60) {
+                sb.append("theirs changed line ").append(i).append('\n');
+            } else {
+                sb.append("line ").append(i).append(" of the base version\n");
+            }
+            if (theirs && i % 1000 == 500) {
+                sb.append("theirs inserted ").append(i).append('\n');
+                sb.append("}\n");
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns LINES lines drawn from a small set, in random order. */
+    private static byte[] shuffled(int lines, Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            sb.append("statement ").append(random.nextInt(lines / 10)).append(";\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns up to 40 line ids out of 6. */
+    private static int[] randomIds(Random random) {
+        int[] ids = new int[random.nextInt(40)];
+        for (int i = 0; i < ids.length; i += 1) {
+            ids[i] = random.nextInt(6);
+        }
+        return ids;
+    }
+
+    /** Returns the length of the longest common subsequence of A and B. */
+    private static int longestCommonSubsequence(int[] a, int[] b) {
+        int[][] table = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; i -= 1) {
+            for (int j = b.length - 1; j >= 0; j -= 1) {
+                table[i][j] = (a[i] == b[j]) ? table[i + 1][j + 1] + 1
+                        : Math.max(table[i + 1][j], table[i][j + 1]);
+            }
+        }
+        return table[0][0];
+    }
+}
@@ -1,6 +1,8 @@
 package gitlet;
 
 
+import java.util.Arrays;
+
 import static gitlet.Utils.*;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
@@ -12,11 +14,22 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        if (Daemon.forward(args)) {
+            return;
+        }
+        run(args);
+    }
+
+    /** Runs the command in ARGS in this process, and returns false if it
+     *  failed, leaving the repository as it was before the command. */
+    static boolean run(String[] args) {
+        boolean done = false;
         try {
             if (args.length == 0) {
                 message("Please enter a command.");
-                System.exit(0);
+                return true;
             }
+            Journal.recover();
             String firstArg = args[0];
             switch (firstArg) {
                 case "init":
@@ -25,8 +38,8 @@ public class Main {
                     new Repository();
                     break;
                 case "add":
-                    validateNumArgs("add", args, 2, 2);
-                    Repository.stageCommit(args[1]);
+                    validateNumArgs("add", args, 2, Integer.MAX_VALUE);
+                    Repository.stageCommit(Arrays.copyOfRange(args, 1, args.length));
                     break;
                 case "add-remote":
                     validateNumArgs("add-remote", args, 3, 3);
@@ -44,21 +57,43 @@ public class Main {
                     validateNumArgs("checkout", args, 2, 4);
                     Repository.checkOutCommit(args);
                     break;
+                case "config":
+                    validateNumArgs("config", args, 2, 3);
+                    Repository.configureRepository(args[1], (args.length == 3) ? args[2] : null);
+                    break;
+                case "daemon":
+                    validateNumArgs("daemon", args, 1, 2);
+                    if (args.length == 1) {
+                        Daemon.serve();
+                    } else if (args[1].equals("stop")) {
+                        throw error("No daemon is running.");
+                    } else {
+                        throw error("Incorrect operands.");
+                    }
+                    break;
+                case "diff":
+                    validateNumArgs("diff", args, 1, 3);
+                    Repository.diffFiles(Arrays.copyOfRange(args, 1, args.length));
+                    break;
                 case "find":
                     validateNumArgs("find", args, 2, 2);
                     Repository.findAllCommits(args[1]);
                     break;
                 case "fetch":
                     validateNumArgs("fetch", args, 3, 3);
-//                    Repository.fetchRemoteBranch(args[1], args[2]);
+                    Repository.fetchRemoteCommit(args[1], args[2]);
                     break;
                 case "pull":
                     validateNumArgs("pull", args, 3, 3);
-//                    Repository.pullRemoteBranch(args[1], args[2]);
+                    Repository.pullRemoteBranch(args[1], args[2]);
                     break;
                 case "push":
                     validateNumArgs("push", args, 3, 3);
-//                    Repository.pushRemoteCommits(args[1], args[2]);
+                    Repository.pushRemoteCommits(args[1], args[2]);
+                    break;
+                case "upload-pack":
+                    validateNumArgs("upload-pack", args, 2, 2);
+                    Remote.serveUpload(args[1]);
                     break;
                 case "rm":
                     validateNumArgs("rm", args, 2, 2);
@@ -70,16 +105,26 @@ public class Main {
                     break;
                 case "rm-remote":
                     validateNumArgs("rm-remote", args, 2, 2);
-//                    Repository.removeRemoteBranch(args[1]);
+                    Repository.removeRemoteBranch(args[1]);
                     break;
                 case "log":
-                    validateNumArgs("log", args, 1, 1);
-                    Repository.checkCommitLog();
+                    validateNumArgs("log", args, 1, 3);
+                    if (args.length == 1) {
+                        Repository.checkCommitLog();
+                    } else if (args.length == 3 && args[1].equals("--follow")) {
+                        Repository.followFileLog(args[2]);
+                    } else {
+                        throw error("Incorrect operands.");
+                    }
                     break;
                 case "merge":
                     validateNumArgs("merge", args, 2, 2);
                     Repository.mergeBranch(args[1]);
                     break;
+                case "gc":
+                    validateNumArgs("gc", args, 1, 1);
+                    Repository.packObjects();
+                    break;
                 case "global-log":
                     validateNumArgs("global-log", args, 1, 1);
                     Repository.checkCommitGlobalLog();
@@ -88,6 +133,18 @@ public class Main {
                     validateNumArgs("reset", args, 2, 2);
                     Repository.resetCommitHistory(args[1]);
                     break;
+                case "receive-pack":
+                    validateNumArgs("receive-pack", args, 2, 2);
+                    Remote.serveReceive(args[1]);
+                    break;
+                case "search":
+                    validateNumArgs("search", args, 2, Integer.MAX_VALUE);
+                    Repository.searchCommits(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                case "stats":
+                    validateNumArgs("stats", args, 1, 1);
+                    Repository.displayObjectStats();
+                    break;
                 case "status":
                     validateNumArgs("status", args, 1, 1);
                     Repository.checkCommitStatus();
@@ -95,9 +152,17 @@ public class Main {
                 default:
                     message("No command with that name exists.");
             }
+            StagingIndex.save();
+            Journal.commit();
+            StatCache.save();
+            done = true;
         } catch (GitletException | IllegalArgumentException e) {
             System.out.println(e.getMessage());
         }
+        if (Config.getBoolean("debug", false)) {
+            System.err.println(CommitCache.statistics());
+        }
+        return done;
     }
 
     /**
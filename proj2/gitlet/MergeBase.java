@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Merge-base search over the CommitGraph, pruned by generation numbers.
+ *  Commits are visited in decreasing generation, painting each with the side
+ *  (or both sides) it is reachable from. Since every descendant of a commit has
+ *  a larger generation, a commit's paint is final once it is visited: if it is
+ *  reachable from both sides it is a merge base, and its ancestors are painted
+ *  stale. The walk stops as soon as every commit still queued is stale, so it
+ *  never explores history below the merge bases. In a criss-cross history all
+ *  best common ancestors are found, none of them an ancestor of another.
+ *  @author Sophia Xia
+ */
+class MergeBase {
+
+    private static final byte PARENT1 = 1;
+
+    private static final byte PARENT2 = 2;
+
+    private static final byte STALE = 4;
+
+    private static final byte RESULT = 8;
+
+    /**
+     * Finds the merge bases of two commits.
+     * @param graph: the commit graph.
+     * @param a: row of the first commit.
+     * @param b: row of the second commit.
+     * @return rows of all best common ancestors, most recent first; empty if
+     *         the commits share no history.
+     */
+    static List<Integer> find(CommitGraph graph, int a, int b) {
+        List<Integer> result = new ArrayList<>();
+        if (a == b) {
+            result.add(a);
+            return result;
+        }
+        byte[] flags = new byte[graph.size()];
+        int[] queued = new int[graph.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(byRecency(graph));
+        flags[a] |= PARENT1;
+        flags[b] |= PARENT2;
+        queue.add(a);
+        queue.add(b);
+        queued[a] += 1;
+        queued[b] += 1;
+        int nonStale = 2;
+        while (nonStale > 0) {
+            int x = queue.poll();
+            queued[x] -= 1;
+            int paint = flags[x] & (PARENT1 | PARENT2 | STALE);
+            if ((paint & STALE) == 0) {
+                nonStale -= 1;
+            }
+            if (paint == (PARENT1 | PARENT2)) {
+                if ((flags[x] & RESULT) == 0) {
+                    flags[x] |= RESULT;
+                    result.add(x);
+                }
+                paint |= STALE;
+            }
+            for (int parent : parentsOf(graph, x)) {
+                if ((flags[parent] & paint) == paint) {
+                    continue;
+                }
+                if ((flags[parent] & STALE) == 0 && (paint & STALE) != 0) {
+                    nonStale -= queued[parent];
+                }
+                flags[parent] |= paint;
+                queue.add(parent);
+                queued[parent] += 1;
+                if ((flags[parent] & STALE) == 0) {
+                    nonStale += 1;
+                }
+            }
+        }
+        result.removeIf(row -> (flags[row] & STALE) != 0);
+        result.sort(byRecency(graph));
+        return result;
+    }
+
+    /**
+     * Checks ancestry without walking below the generation of the candidate.
+     * @param graph: the commit graph.
+     * @param ancestor: row of the candidate ancestor.
+     * @param descendant: row of the candidate descendant.
+     * @return true iff ANCESTOR is DESCENDANT or one of its ancestors.
+     */
+    static boolean isAncestor(CommitGraph graph, int ancestor, int descendant) {
+        int floor = graph.generation(ancestor);
+        boolean[] seen = new boolean[graph.size()];
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(descendant);
+        seen[descendant] = true;
+        while (!stack.isEmpty()) {
+            int x = stack.pop();
+            if (x == ancestor) {
+                return true;
+            }
+            for (int parent : parentsOf(graph, x)) {
+                if (!seen[parent] && graph.generation(parent) >= floor) {
+                    seen[parent] = true;
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Orders rows by decreasing generation, then by decreasing timestamp. */
+    private static Comparator<Integer> byRecency(CommitGraph graph) {
+        return (x, y) -> {
+            int cmp = Integer.compare(graph.generation(y), graph.generation(x));
+            return (cmp != 0) ? cmp : Long.compare(graph.timestamp(y), graph.timestamp(x));
+        };
+    }
+
+    /** Returns the rows of the parents of ROW. */
+    private static int[] parentsOf(CommitGraph graph, int row) {
+        int first = graph.firstParent(row);
+        int second = graph.secondParent(row);
+        if (first == CommitGraph.NONE) {
+            return new int[0];
+        } else if (second == CommitGraph.NONE) {
+            return new int[] {first};
+        }
+        return new int[] {first, second};
+    }
+}
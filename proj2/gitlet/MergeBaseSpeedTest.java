@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** Performs a timing test of the generation-pruned MergeBase search against a
+ *  walk of the full ancestry of both commits, on a synthetic history with
+ *  long-lived branches that repeatedly merge each other, criss-crosses included.
+ *  Both searches run once untimed to warm up, and their answers are compared.
+ *  Usage: java gitlet.MergeBaseSpeedTest [COMMITS] [BRANCHES] [QUERIES]
+ *  @author Sophia Xia
+ */
+public class MergeBaseSpeedTest {
+
+    /** Builds the history and times merge-base queries between branch tips.
+     *  ARGS optionally holds the number of commits, branches and queries. */
+    public static void main(String[] args) {
+        int commits = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int branches = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        int queries = (args.length > 2) ? Integer.parseInt(args[2]) : 50;
+        Random random = new Random(61);
+
+        CommitGraph graph = new CommitGraph();
+        int[] tips = new int[branches];
+        tips[0] = graph.append(sha1("0"), CommitGraph.NONE, CommitGraph.NONE, 0);
+        for (int i = 1; i < branches; i += 1) {
+            tips[i] = tips[0];
+        }
+        while (graph.size() < commits) {
+            int branch = random.nextInt(branches);
+            String id = sha1(Integer.toString(graph.size()));
+            if (random.nextInt(50) == 0) {
+                int other = random.nextInt(branches);
+                tips[branch] = graph.append(id, tips[branch], tips[other], graph.size());
+            } else {
+                tips[branch] = graph.append(id, tips[branch], CommitGraph.NONE, graph.size());
+            }
+        }
+
+        System.out.printf("History of %d commits on %d branches, %d queries.%n",
+                graph.size(), branches, queries);
+        int[][] pairs = new int[queries][];
+        for (int q = 0; q < queries; q += 1) {
+            pairs[q] = new int[] {tips[random.nextInt(branches)], tips[random.nextInt(branches)]};
+        }
+        List<Set<Integer>> expected = new ArrayList<>();
+        for (int[] pair : pairs) {  // warm-up, and the expected answers
+            expected.add(fullWalk(graph, pair[0], pair[1]));
+            MergeBase.find(graph, pair[0], pair[1]);
+        }
+        long start = System.nanoTime();
+        for (int[] pair : pairs) {
+            fullWalk(graph, pair[0], pair[1]);
+        }
+        double fullSeconds = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        int mismatches = 0;
+        int multiple = 0;
+        for (int q = 0; q < queries; q += 1) {
+            List<Integer> bases = MergeBase.find(graph, pairs[q][0], pairs[q][1]);
+            if (!new HashSet<>(bases).equals(expected.get(q))) {
+                mismatches += 1;
+            }
+            if (bases.size() > 1) {
+                multiple += 1;
+            }
+        }
+        double prunedSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Full ancestry walk: %.3f ms/query%n", fullSeconds * 1000 / queries);
+        System.out.printf("Generation-pruned:  %.3f ms/query%n", prunedSeconds * 1000 / queries);
+        System.out.printf("%d queries had several merge bases, %d mismatches.%n",
+                multiple, mismatches);
+    }
+
+    /** Returns the merge bases of A and B by marking every ancestor of both:
+     *  a common ancestor is a merge base unless it is the parent of another. */
+    private static Set<Integer> fullWalk(CommitGraph graph, int a, int b) {
+        boolean[] fromA = ancestors(graph, a);
+        boolean[] fromB = ancestors(graph, b);
+        boolean[] redundant = new boolean[graph.size()];
+        for (int x = 0; x < graph.size(); x += 1) {
+            if (fromA[x] && fromB[x]) {
+                for (int parent : new int[] {graph.firstParent(x), graph.secondParent(x)}) {
+                    if (parent != CommitGraph.NONE) {
+                        redundant[parent] = true;
+                    }
+                }
+            }
+        }
+        Set<Integer> result = new HashSet<>();
+        for (int x = 0; x < graph.size(); x += 1) {
+            if (fromA[x] && fromB[x] && !redundant[x]) {
+                result.add(x);
+            }
+        }
+        return result;
+    }
+
+    /** Marks ROW and all of its ancestors. */
+    private static boolean[] ancestors(CommitGraph graph, int row) {
+        boolean[] marked = new boolean[graph.size()];
+        marked[row] = true;
+        for (int x = row; x >= 0; x -= 1) {
+            if (marked[x]) {
+                for (int parent : new int[] {graph.firstParent(x), graph.secondParent(x)}) {
+                    if (parent != CommitGraph.NONE) {
+                        marked[parent] = true;
+                    }
+                }
+            }
+        }
+        return marked;
+    }
+}
@@ -0,0 +1,143 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** On-disk encoding of gitlet objects, loose or packed.
+ *  An encoded object is a four-byte magic number, one byte recording the codec,
+ *  then the contents, either as they are (STORED) or as a deflate stream (DEFLATE).
+ *  Compression is streamed straight to and from the file or the mapped pack, so
+ *  the compressed form of an object is never held in memory as a whole.
+ *  Objects written before this encoding existed have no header and are read
+ *  back as they are.
+ *  @author Sophia Xia
+ */
+class ObjectCodec {
+
+    private static final byte[] MAGIC = {0, 'G', 'O', 'B'};
+
+    private static final int HEADER = MAGIC.length + 1;
+
+    /** Codec of objects whose contents follow the header uncompressed. */
+    static final byte STORED = 0;
+
+    /** Codec of objects whose contents follow the header as a deflate stream. */
+    static final byte DEFLATE = 1;
+
+    /**
+     * Encodes CONTENTS into FILE, creating or overwriting it. The deflate level is
+     * the `compression` setting, 0 to 9; level 0 stores contents uncompressed.
+     */
+    static void write(File file, byte[] contents) {
+        try {
+            write(file, new ByteArrayInputStream(contents));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes the contents of SOURCE into FILE as they are read, hashing them on
+     * the way, so that neither form of the contents is ever held in memory.
+     * @return the SHA-1 id of the contents of SOURCE.
+     */
+    static String write(File file, File source) {
+        MessageDigest md = sha1Digest();
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            write(file, new DigestInputStream(in, md));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return hexId(md.digest(), 0);
+    }
+
+    /** Encodes everything read from IN into FILE, with the `compression` setting. */
+    private static void write(File file, InputStream in) throws IOException {
+        int level = Config.getInt("compression", Deflater.DEFAULT_COMPRESSION);
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw error("Setting compression must be between 0 and 9.");
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            out.write(MAGIC);
+            if (level == Deflater.NO_COMPRESSION) {
+                out.write(STORED);
+                in.transferTo(out);
+            } else {
+                out.write(DEFLATE);
+                Deflater deflater = new Deflater(level);
+                DeflaterOutputStream deflated =
+                        new DeflaterOutputStream(out, deflater, STREAM_BUFFER);
+                in.transferTo(deflated);
+                deflated.finish();
+                deflater.end();
+            }
+        }
+    }
+
+    /** Returns the decoded contents of the object encoded in FILE. */
+    static byte[] read(File file) {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            return decode(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Returns the decoded contents of the object encoded in the remaining bytes of BUF. */
+    static byte[] read(ByteBuffer buf) {
+        try {
+            return decode(new BufferedInputStream(new InputStream() {
+                @Override
+                public int read() {
+                    return buf.hasRemaining() ? buf.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (!buf.hasRemaining()) {
+                        return -1;
+                    }
+                    int n = Math.min(len, buf.remaining());
+                    buf.get(b, off, n);
+                    return n;
+                }
+            }));
+        } catch (IOException e) {
+            throw error("Could not decode object.");
+        }
+    }
+
+    /** Reads the header of IN, then the contents it describes. */
+    private static byte[] decode(InputStream in) throws IOException {
+        in.mark(HEADER);
+        byte[] header = in.readNBytes(HEADER);
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (header.length < HEADER || header[i] != MAGIC[i]) {
+                in.reset(); // written before objects had a header
+                return in.readAllBytes();
+            }
+        }
+        switch (header[MAGIC.length]) {
+            case STORED:
+                return in.readAllBytes();
+            case DEFLATE:
+                return new InflaterInputStream(in).readAllBytes();
+            default:
+                throw error("Unknown object codec %d.", header[MAGIC.length]);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Locates gitlet objects by type and id, whether they are stored loose under
+ *  objects/[type]/xx/ or inside the pack written by `gitlet gc`.
+ *  Loose objects are always consulted first, since they are the newest.
+ *  A blob may be stored in full, as a delta against an earlier version of the
+ *  same file, or as a manifest of content-defined chunks; reading a blob
+ *  rebuilds it in every case.
+ *  @author Sophia Xia
+ */
+class ObjectStore {
+
+    /** Object type of file contents. */
+    static final int BLOB = 0;
+
+    /** Object type of serialized commits. */
+    static final int COMMIT = 1;
+
+    /** Object type of blobs stored as a Delta against another blob. */
+    static final int DELTA = 2;
+
+    /** Object type of blobs stored as a Chunker manifest of chunk blobs. */
+    static final int MANIFEST = 3;
+
+    /** Object type of directory trees. */
+    static final int TREE = 4;
+
+    /** Loose folder of each object type, indexed by type. */
+    private static final String[] FOLDERS = {"blobs", "commits", "deltas", "manifests", "trees"};
+
+    /** Loose objects written by this command and not yet synced to the disk. */
+    private static final List<File> UNSYNCED = new ArrayList<>();
+
+    /** Returns the loose path of the object of the given TYPE and ID. */
+    static File loosePath(int type, String id) {
+        return join(Commit.OBJECT_FOLDER, FOLDERS[type], id.substring(0, 2), id.substring(2));
+    }
+
+    /** Returns true iff the object of the given TYPE and ID is stored, loose or packed.
+     *  A blob stored as a delta or a manifest counts as a stored blob. */
+    static boolean contains(int type, String id) {
+        return containsStored(type, id)
+                || (type == BLOB && (containsStored(DELTA, id) || containsStored(MANIFEST, id)));
+    }
+
+    /**
+     * Reads the contents of a stored object, rebuilding blobs stored as deltas.
+     * @param type: type of the object.
+     * @param id: id of the object.
+     * @return contents of the object, or null if no such object is stored.
+     */
+    static byte[] read(int type, String id) {
+        byte[] contents = readStored(type, id);
+        if (contents == null && type == BLOB) {
+            byte[] delta = readStored(DELTA, id);
+            if (delta != null) {
+                byte[] base = read(BLOB, Delta.baseId(delta));
+                contents = (base == null) ? null : Delta.apply(base, delta);
+            }
+        }
+        if (contents == null && type == BLOB) {
+            byte[] manifest = readStored(MANIFEST, id);
+            if (manifest != null) {
+                contents = concatenateChunks(manifest);
+            }
+        }
+        return contents;
+    }
+
+    /** Returns the contents of the chunks listed in MANIFEST, one after another. */
+    private static byte[] concatenateChunks(byte[] manifest) {
+        long length = Chunker.contentLength(manifest);
+        if (length > Integer.MAX_VALUE) {
+            throw error("File too large to read into memory.");
+        }
+        ByteBuffer contents = ByteBuffer.allocate((int) length);
+        for (String chunkId : Chunker.chunkIds(manifest)) {
+            byte[] chunk = readStored(BLOB, chunkId);
+            if (chunk == null) {
+                throw error("Chunk %s is missing from the repository.", chunkId);
+            }
+            contents.put(chunk);
+        }
+        return contents.array();
+    }
+
+    /** Returns the length of the delta chain of blob ID, 0 if it is stored in full. */
+    static int deltaDepth(String id) {
+        if (containsStored(BLOB, id)) {
+            return 0;
+        }
+        byte[] delta = readStored(DELTA, id);
+        return (delta == null) ? 0 : Delta.depth(delta);
+    }
+
+    /** Returns true iff the object of exactly the given TYPE and ID is stored. */
+    private static boolean containsStored(int type, String id) {
+        if (loosePath(type, id).isFile()) {
+            return true;
+        }
+        PackFile pack = PackFile.load();
+        return pack != null && pack.contains(type, id);
+    }
+
+    /** Returns the stored contents of the object of exactly the given TYPE and ID,
+     *  or null if there is none. */
+    static byte[] readStored(int type, String id) {
+        File file = loosePath(type, id);
+        if (file.isFile()) {
+            return ObjectCodec.read(file);
+        }
+        PackFile pack = PackFile.load();
+        return (pack == null) ? null : pack.read(type, id);
+    }
+
+    /** Returns the number of bytes that the object of exactly the given TYPE and ID
+     *  takes on disk after encoding, or -1 if there is none. */
+    static long storedSize(int type, String id) {
+        File file = loosePath(type, id);
+        if (file.isFile()) {
+            return file.length();
+        }
+        PackFile pack = PackFile.load();
+        return (pack == null) ? -1 : pack.storedSize(type, id);
+    }
+
+    /**
+     * Stores an object as an encoded loose file, to be packed by a later `gitlet gc`.
+     * @param type: type of the object.
+     * @param id: id of the object.
+     * @param contents: contents of the object.
+     */
+    static void writeLoose(int type, String id, byte[] contents) {
+        File temp = incomingFile();
+        ObjectCodec.write(temp, contents);
+        moveInto(temp, loosePath(type, id));
+    }
+
+    /**
+     * Stores the contents of SOURCE as a loose blob, hashing them while they are
+     * encoded, so the file is read once and never held in memory as a whole.
+     * @param source: file whose contents are to be stored.
+     * @return the blob id of the contents.
+     */
+    static String writeLooseBlob(File source) {
+        File temp = incomingFile();
+        String id = ObjectCodec.write(temp, source);
+        if (contains(BLOB, id)) {
+            Repository.deleteIfExists(temp);
+        } else {
+            moveInto(temp, loosePath(BLOB, id));
+        }
+        return id;
+    }
+
+    /**
+     * Stores the contents of SOURCE as a manifest of content-defined chunks, each
+     * chunk a blob of its own that is only written if no file stored it before.
+     * The file is read once, and at most one chunk is held in memory.
+     * @param source: file whose contents are to be stored.
+     * @return the blob id of the contents.
+     */
+    static String writeChunkedBlob(File source) {
+        MessageDigest md = sha1Digest();
+        List<String> ids = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source.toPath()), md)) {
+            Chunker chunker = new Chunker(in);
+            for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+                String chunkId = sha1((Object) chunk);
+                if (!contains(BLOB, chunkId)) {
+                    writeLoose(BLOB, chunkId, chunk);
+                }
+                ids.add(chunkId);
+                lengths.add(chunk.length);
+            }
+        } catch (IOException e) {
+            throw error("Could not read file " + source.toPath());
+        }
+        String id = hexId(md.digest(), 0);
+        // a file of one chunk is that chunk, already stored as a blob of the same id
+        if (ids.size() != 1 && !contains(BLOB, id)) {
+            writeLoose(MANIFEST, id, Chunker.manifest(ids, lengths));
+        }
+        return id;
+    }
+
+    /** Returns a new empty file to write an object into before its final
+     *  place is known, or to be renamed into place once it is complete. */
+    private static File incomingFile() {
+        File folder = join(Commit.OBJECT_FOLDER, "incoming");
+        folder.mkdirs();
+        try {
+            return Files.createTempFile(folder.toPath(), "object", null).toFile();
+        } catch (IOException e) {
+            throw error("Could not create file in " + folder.toPath());
+        }
+    }
+
+    /** Renames the complete object file TEMP to TARGET in one step, so other
+     *  workers and readers never see a partly written object. */
+    private static void moveInto(File temp, File target) {
+        target.getParentFile().mkdirs();
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw error("Could not write file " + target.toPath());
+        }
+        synchronized (UNSYNCED) {
+            UNSYNCED.add(target);
+        }
+    }
+
+    /** Syncs the loose objects written since the last call to the disk, with
+     *  their fan-out folders and the folders above those up to objects/, so
+     *  that they survive a crash before any ref is made to name them. */
+    static void sync() {
+        Set<File> folders = new LinkedHashSet<>();
+        synchronized (UNSYNCED) {
+            for (File file : UNSYNCED) {
+                Journal.force(file);
+                for (File folder = file.getParentFile(); !folder.equals(Commit.OBJECT_FOLDER);
+                     folder = folder.getParentFile()) {
+                    folders.add(folder);
+                }
+            }
+            UNSYNCED.clear();
+        }
+        if (!folders.isEmpty()) {
+            folders.add(Commit.OBJECT_FOLDER);
+        }
+        for (File folder : folders) {
+            Journal.force(folder);
+        }
+    }
+
+    /**
+     * Lists the ids of all stored objects of the given TYPE starting with PREFIX.
+     * A prefix of two or more digits names its loose fan-out folder directly,
+     * and packed ids are found through the fan-out table of the pack index,
+     * so resolving an abbreviated id lists no folder but that one.
+     * @return sorted list of complete object ids.
+     */
+    static List<String> idsWithPrefix(int type, String prefix) {
+        TreeSet<String> ids = new TreeSet<>();
+        File typeFolder = join(Commit.OBJECT_FOLDER, FOLDERS[type]);
+        File[] folders = (prefix.length() >= 2)
+                ? new File[] {join(typeFolder, prefix.substring(0, 2))}
+                : typeFolder.listFiles();
+        if (folders != null) {
+            for (File folder : folders) {
+                String folderName = folder.getName();
+                if (!folderName.startsWith(prefix.substring(0, Math.min(2, prefix.length())))) {
+                    continue;
+                }
+                List<String> names = plainFilenamesIn(folder);
+                if (names != null) {
+                    for (String name : names) {
+                        if ((folderName + name).startsWith(prefix)) {
+                            ids.add(folderName + name);
+                        }
+                    }
+                }
+            }
+        }
+        PackFile pack = PackFile.load();
+        if (pack != null) {
+            ids.addAll(pack.idsWithPrefix(type, prefix));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Moves every loose object into the pack, as encoded and without reading it
+     * into memory, then deletes the loose files and their emptied fan-out folders.
+     * @return the number of loose objects packed.
+     */
+    static int repack() {
+        List<File> packed = new ArrayList<>();
+        PackFile.Writer writer = PackFile.writer();
+        for (int type = 0; type < FOLDERS.length; type += 1) {
+            File[] folders = join(Commit.OBJECT_FOLDER, FOLDERS[type]).listFiles();
+            if (folders == null) {
+                continue;
+            }
+            for (File folder : folders) {
+                List<String> names = plainFilenamesIn(folder);
+                if (names == null) {
+                    continue;
+                }
+                for (String name : names) {
+                    File file = join(folder, name);
+                    writer.add(type, folder.getName() + name, file);
+                    packed.add(file);
+                }
+            }
+        }
+        writer.close();
+        for (File file : packed) {
+            Repository.deleteIfExists(file);
+            file.getParentFile().delete();
+        }
+        return packed.size();
+    }
+}
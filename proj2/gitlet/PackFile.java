@@ -0,0 +1,539 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** An append-only pack of gitlet objects together with a sorted id index.
+ *  The pack starts with a magic number and version, followed by one entry per
+ *  object laid out as
+ *      raw id (20 bytes) | type (1 byte) | length (8 bytes) | encoded contents
+ *  with contents encoded by ObjectCodec, so the index can always be rebuilt
+ *  from the pack alone. Packs of version 1 had 4-byte lengths; they are still
+ *  read, and rewritten in the current layout by the next `gitlet gc`.
+ *  The index holds a magic number, version and count, then
+ *      fan-out table: 256 ints, entry i counts the ids whose first byte is <= i
+ *      id table:      count raw ids of 20 bytes, sorted
+ *      type table:    count bytes, which order the entries of equal ids
+ *      offset table:  count longs, the pack offset of each entry
+ *  The fan-out table plays the role of the two-character folders of loose
+ *  objects: it narrows a lookup to the ids sharing a first byte, which are then
+ *  binary-searched, so both complete and abbreviated ids resolve in O(lg N)
+ *  without listing any folder. An object is then read with a single seek into
+ *  the memory-mapped pack.
+ *  @author Sophia Xia
+ */
+class PackFile {
+
+    /** Folder that the pack and its index are located at. */
+    static final File PACK_FOLDER = join(Commit.OBJECT_FOLDER, "pack");
+
+    static final File PACK = join(PACK_FOLDER, "objects.pack");
+
+    static final File INDEX = join(PACK_FOLDER, "objects.idx");
+
+    private static final int PACK_MAGIC = 0x4750414b; // "GPAK"
+
+    private static final int PACK_VERSION = 2;
+
+    private static final int PACK_HEADER = 8;
+
+    private static final int INDEX_MAGIC = 0x47494458; // "GIDX"
+
+    private static final int INDEX_VERSION = 2;
+
+    private static final int FANOUT = 256;
+
+    private static final int INDEX_HEADER = 12 + FANOUT * 4;
+
+    /** Width of an entry header in the pack. */
+    private static final int ENTRY_HEADER = RAW_UID_LENGTH + 1 + 8;
+
+    /** Width of an entry header in a pack of version 1. */
+    private static final int ENTRY_HEADER_V1 = RAW_UID_LENGTH + 1 + 4;
+
+    /** Width of an in-memory record: raw id, type and offset. */
+    private static final int RECORD = RAW_UID_LENGTH + 1 + 8;
+
+    /** The pack loaded by this process, null until first needed. */
+    private static PackFile loaded;
+
+    private final FileChannel packChannel;
+
+    /** Width of the entry headers of this pack, which depends on its version. */
+    private final int entryHeader;
+
+    /** The whole pack mapped at once, null if it is too large to map. */
+    private final MappedByteBuffer pack;
+
+    private final MappedByteBuffer index;
+
+    private final int count;
+
+    /** Positions of the type and offset tables in the index. */
+    private final int typesStart;
+
+    private final int offsetsStart;
+
+    private PackFile() throws IOException {
+        packChannel = FileChannel.open(PACK.toPath());
+        long packSize = packChannel.size();
+        pack = (packSize <= Integer.MAX_VALUE)
+                ? packChannel.map(FileChannel.MapMode.READ_ONLY, 0, packSize) : null;
+        entryHeader = (region(4, 4).getInt() == 1) ? ENTRY_HEADER_V1 : ENTRY_HEADER;
+        try (FileChannel indexChannel = FileChannel.open(INDEX.toPath())) {
+            index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+        }
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != INDEX_VERSION) {
+            throw error("Unrecognized pack index %s.", INDEX.getPath());
+        }
+        count = index.getInt(8);
+        typesStart = INDEX_HEADER + count * RAW_UID_LENGTH;
+        offsetsStart = typesStart + count;
+    }
+
+    /**
+     * Opens the pack of this repository, memory-mapping it on first use.
+     * An index written by an older version is rebuilt from the pack first.
+     * @return the pack, or null if `gitlet gc` has never written one.
+     */
+    static synchronized PackFile load() {
+        if (loaded == null && PACK.isFile()) {
+            if (!INDEX.isFile() || indexVersion() != INDEX_VERSION) {
+                reindex();
+            }
+            try {
+                loaded = new PackFile();
+            } catch (IOException e) {
+                throw error("Could not read pack file " + PACK.toPath());
+            }
+        }
+        return loaded;
+    }
+
+    /** Closes the loaded pack, so the next use opens it again. */
+    static synchronized void unload() {
+        if (loaded != null) {
+            try {
+                loaded.packChannel.close();
+            } catch (IOException e) {
+                // the mapping stays readable, and nothing else uses the channel
+            }
+            loaded = null;
+        }
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns true iff the object of the given TYPE and ID is in this pack. */
+    boolean contains(int type, String id) {
+        return find(type, id) >= 0;
+    }
+
+    /**
+     * Reads and decodes the contents of a packed object.
+     * @param type: type of the object, as in ObjectStore.
+     * @param id: complete hexadecimal id of the object.
+     * @return contents of the object, or null if it is not in this pack.
+     */
+    byte[] read(int type, String id) {
+        int k = find(type, id);
+        if (k < 0) {
+            return null;
+        }
+        long offset = offsetAt(k);
+        long length = lengthAt(offset);
+        if (length > Integer.MAX_VALUE) {
+            throw error("Object %s too large to read into memory.", id);
+        }
+        try {
+            return ObjectCodec.read(region(offset + entryHeader, (int) length));
+        } catch (IOException e) {
+            throw error("Could not read pack file " + PACK.toPath());
+        }
+    }
+
+    /** Returns the encoded length of the entry at OFFSET of this pack. */
+    private long lengthAt(long offset) {
+        try {
+            ByteBuffer header = region(offset, entryHeader);
+            return (entryHeader == ENTRY_HEADER_V1) ? header.getInt(RAW_UID_LENGTH + 1)
+                    : header.getLong(RAW_UID_LENGTH + 1);
+        } catch (IOException e) {
+            throw error("Could not read pack file " + PACK.toPath());
+        }
+    }
+
+    /** Returns the encoded length of the object of the given TYPE and ID in this
+     *  pack, or -1 if it is not in this pack. */
+    long storedSize(int type, String id) {
+        int k = find(type, id);
+        return (k < 0) ? -1 : lengthAt(offsetAt(k));
+    }
+
+    /** Returns the ids of all packed objects of the given TYPE, in sorted order. */
+    List<String> ids(int type) {
+        return idsWithPrefix(type, "");
+    }
+
+    /**
+     * Resolves an abbreviated id using the fan-out table and a binary search.
+     * @param type: type of the objects to list.
+     * @param prefix: hexadecimal prefix of at most UID_LENGTH digits.
+     * @return the sorted ids of packed objects of TYPE starting with PREFIX.
+     */
+    List<String> idsWithPrefix(int type, String prefix) {
+        List<String> result = new ArrayList<>();
+        if (prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]*")) {
+            return result;
+        }
+        String padded = (prefix + "0".repeat(UID_LENGTH)).substring(0, UID_LENGTH);
+        byte[] low = rawId(padded);
+        int first = low[0] & 0xff;
+        int last = (prefix.length() >= 2) ? first : first | (prefix.isEmpty() ? 0xff : 0x0f);
+        int lo = fanoutBefore(first);
+        int hi = fanoutBefore(last + 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareIdAt(mid, low) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = fanoutBefore(last + 1);
+        for (int k = lo; k < end; k += 1) {
+            String id = idAt(k);
+            if (!id.startsWith(prefix)) {
+                break;
+            } else if (typeAt(k) == type) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of ids whose first byte is less than B. */
+    private int fanoutBefore(int b) {
+        return (b == 0) ? 0 : index.getInt(12 + (b - 1) * 4);
+    }
+
+    /** Returns the hexadecimal id of the K-th entry of the index. */
+    private String idAt(int k) {
+        byte[] raw = new byte[RAW_UID_LENGTH];
+        ByteBuffer ids = index.duplicate();
+        ids.position(INDEX_HEADER + k * RAW_UID_LENGTH);
+        ids.get(raw);
+        return hexId(raw, 0);
+    }
+
+    /** Returns the object type of the K-th entry of the index. */
+    private int typeAt(int k) {
+        return index.get(typesStart + k);
+    }
+
+    /** Returns the pack offset of the K-th entry of the index. */
+    private long offsetAt(int k) {
+        return index.getLong(offsetsStart + k * 8);
+    }
+
+    /** Binary search of the index for the object of the given TYPE and ID.
+     *  Objects of different types may share an id, and then have adjacent
+     *  entries. Returns its entry number or -1. */
+    private int find(int type, String id) {
+        if (id == null || id.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] raw = rawId(id);
+        int lo = fanoutBefore(raw[0] & 0xff);
+        int hi = fanoutBefore((raw[0] & 0xff) + 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareIdAt(mid, raw) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < count && compareIdAt(k, raw) == 0; k += 1) {
+            if (typeAt(k) == type) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the id of the K-th entry against RAW as unsigned bytes. */
+    private int compareIdAt(int k, byte[] raw) {
+        int base = INDEX_HEADER + k * RAW_UID_LENGTH;
+        for (int i = 0; i < RAW_UID_LENGTH; i += 1) {
+            int cmp = Integer.compare(index.get(base + i) & 0xff, raw[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the in-memory record of the K-th entry of the index. */
+    private byte[] recordAt(int k) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        ByteBuffer ids = index.duplicate();
+        ids.position(INDEX_HEADER + k * RAW_UID_LENGTH);
+        ids.limit(INDEX_HEADER + (k + 1) * RAW_UID_LENGTH);
+        record.put(ids).put((byte) typeAt(k)).putLong(offsetAt(k));
+        return record.array();
+    }
+
+    /** Returns LENGTH bytes of the pack starting at OFFSET. */
+    private ByteBuffer region(long offset, int length) throws IOException {
+        if (pack == null) {
+            return packChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+        ByteBuffer buf = pack.duplicate();
+        buf.position((int) offset);
+        buf.limit((int) offset + length);
+        return buf.slice();
+    }
+
+    /** Returns the version of the index on disk, or -1 if it is unreadable. */
+    private static int indexVersion() {
+        return version(INDEX, INDEX_MAGIC);
+    }
+
+    /** Returns the version of the pack on disk, or -1 if it is unreadable. */
+    private static int packVersion() {
+        return version(PACK, PACK_MAGIC);
+    }
+
+    /** Returns the version that follows MAGIC at the start of FILE, or -1. */
+    private static int version(File file, int magic) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return (in.readInt() == magic) ? in.readInt() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /** Rebuilds the index by scanning the entries of the pack. */
+    private static void reindex() {
+        List<byte[]> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(PACK)))) {
+            if (in.readInt() != PACK_MAGIC) {
+                throw error("Unrecognized pack file %s.", PACK.getPath());
+            }
+            int version = in.readInt();
+            if (version != 1 && version != PACK_VERSION) {
+                throw error("Unrecognized pack file %s.", PACK.getPath());
+            }
+            long offset = PACK_HEADER;
+            long end = PACK.length();
+            byte[] raw = new byte[RAW_UID_LENGTH];
+            while (offset < end) {
+                in.readFully(raw);
+                int type = in.readByte();
+                long length = (version == 1) ? in.readInt() : in.readLong();
+                in.skipNBytes(length);
+                records.add(ByteBuffer.allocate(RECORD).put(raw).put((byte) type)
+                        .putLong(offset).array());
+                offset += ((version == 1) ? ENTRY_HEADER_V1 : ENTRY_HEADER) + length;
+            }
+        } catch (IOException e) {
+            throw error("Could not read pack file " + PACK.toPath());
+        }
+        writeIndex(records);
+    }
+
+    /** Rewrites a pack of version 1 in the current layout, copying each entry
+     *  through a fixed-size buffer, then indexes it again. */
+    private static void upgrade() {
+        unload();
+        File tmp = join(PACK_FOLDER, PACK.getName() + ".tmp");
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(PACK), STREAM_BUFFER));
+             RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(out.getChannel()), STREAM_BUFFER));
+            in.skipNBytes(PACK_HEADER);
+            data.writeInt(PACK_MAGIC);
+            data.writeInt(PACK_VERSION);
+            long end = PACK.length();
+            byte[] header = new byte[RAW_UID_LENGTH + 1];
+            for (long offset = PACK_HEADER; offset < end; ) {
+                in.readFully(header);
+                long length = in.readInt();
+                data.write(header);
+                data.writeLong(length);
+                copy(in, data, length);
+                offset += ENTRY_HEADER_V1 + length;
+            }
+            data.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            throw error("Could not write pack file " + PACK.toPath());
+        }
+        try {
+            Files.move(tmp.toPath(), PACK.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw error("Could not write pack file " + PACK.toPath());
+        }
+        reindex();
+    }
+
+    /** Copies exactly LENGTH bytes from IN to OUT through a fixed-size buffer. */
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buf = new byte[STREAM_BUFFER];
+        while (length > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, length));
+            if (n < 0) {
+                throw new EOFException();
+            }
+            out.write(buf, 0, n);
+            length -= n;
+        }
+    }
+
+    /** Sorts RECORDS by id and type and atomically replaces the index with them. */
+    private static void writeIndex(List<byte[]> records) {
+        records.sort((a, b) -> Arrays.compareUnsigned(a, 0, RAW_UID_LENGTH + 1,
+                b, 0, RAW_UID_LENGTH + 1));
+        int n = records.size();
+        ByteBuffer buf = ByteBuffer.allocate(INDEX_HEADER + n * RECORD);
+        buf.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putInt(n);
+        int k = 0;
+        for (int b = 0; b < FANOUT; b += 1) {
+            while (k < n && (records.get(k)[0] & 0xff) == b) {
+                k += 1;
+            }
+            buf.putInt(k);
+        }
+        for (byte[] record : records) {
+            buf.put(record, 0, RAW_UID_LENGTH);
+        }
+        for (byte[] record : records) {
+            buf.put(record[RAW_UID_LENGTH]);
+        }
+        for (byte[] record : records) {
+            buf.put(record, RAW_UID_LENGTH + 1, 8);
+        }
+        try {
+            File tmp = join(PACK_FOLDER, INDEX.getName() + ".tmp");
+            writeContents(tmp, (Object) buf.array());
+            Files.move(tmp.toPath(), INDEX.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw error("Could not write pack index " + INDEX.toPath());
+        }
+        loaded = null;
+    }
+
+    /** Returns a writer that appends objects to the pack of this repository. */
+    static Writer writer() {
+        if (PACK.isFile() && packVersion() == 1) {
+            upgrade();
+        }
+        try {
+            return new Writer();
+        } catch (IOException e) {
+            throw error("Could not write pack file " + PACK.toPath());
+        }
+    }
+
+    /** Appends objects to the end of the pack, then rewrites the index once
+     *  for the whole batch when closed. Objects already packed with the same
+     *  type and id are skipped. */
+    static class Writer {
+
+        private final RandomAccessFile out;
+
+        private final List<byte[]> records = new ArrayList<>();
+
+        /** Type and id of each object in the pack, as key(type, id). */
+        private final Set<String> written = new HashSet<>();
+
+        private Writer() throws IOException {
+            PACK_FOLDER.mkdirs();
+            PackFile existing = load();
+            if (existing != null) {
+                for (int k = 0; k < existing.count; k += 1) {
+                    records.add(existing.recordAt(k));
+                    written.add(key(existing.typeAt(k), existing.idAt(k)));
+                }
+            }
+            out = new RandomAccessFile(PACK, "rw");
+            if (out.length() == 0) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(PACK_VERSION);
+            }
+            out.seek(Math.max(out.length(), PACK_HEADER));
+        }
+
+        /** Appends the object of the given TYPE and ID, encoded by ObjectCodec
+         *  in the loose FILE, to the pack. The file is copied from channel to
+         *  channel, so no object is held in memory whatever its size. */
+        void add(int type, String id, File file) {
+            if (!written.add(key(type, id))) {
+                return;
+            }
+            try (FileChannel in = FileChannel.open(file.toPath())) {
+                byte[] raw = rawId(id);
+                ByteBuffer record = ByteBuffer.allocate(RECORD);
+                record.put(raw).put((byte) type).putLong(out.getFilePointer());
+                records.add(record.array());
+                long length = in.size();
+                out.write(raw);
+                out.writeByte(type);
+                out.writeLong(length);
+                FileChannel channel = out.getChannel();
+                for (long done = 0; done < length; ) {
+                    done += in.transferTo(done, length - done, channel);
+                }
+            } catch (IOException e) {
+                throw error("Could not write pack file " + PACK.toPath());
+            }
+        }
+
+        /** Returns the key of the object of the given TYPE and ID in written. */
+        private static String key(int type, String id) {
+            return type + " " + id;
+        }
+
+        /** Syncs the pack and replaces the index with one covering every object. */
+        void close() {
+            try {
+                out.getFD().sync();
+                out.close();
+            } catch (IOException e) {
+                throw error("Could not write pack file " + PACK.toPath());
+            }
+            writeIndex(records);
+        }
+    }
+}
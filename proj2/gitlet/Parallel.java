@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/** Runs independent tasks, such as hashing and writing the blobs of many files,
+ *  on a bounded pool of worker threads. Results are collected in the order of
+ *  the inputs, so callers see exactly what running the tasks one after another
+ *  would give them. The number of workers is the `threads` setting, by default
+ *  the number of available processors; with 1 every task runs on the caller.
+ *  @author Sophia Xia
+ */
+class Parallel {
+
+    /**
+     * Applies TASK to every item, spreading the items over the worker pool.
+     * @param items: inputs of the tasks.
+     * @param task: work to do for one item; must not depend on the other items.
+     * @return the result of TASK for each item, in the order of ITEMS.
+     *         If any task throws, the exception of the first such item is rethrown.
+     */
+    static <T, R> List<R> map(List<T> items, Function<T, R> task) {
+        int threads = Math.min(threads(), items.size());
+        List<R> results = new ArrayList<>(items.size());
+        if (threads <= 1) {
+            for (T item : items) {
+                results.add(task.apply(item));
+            }
+            return results;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread worker = new Thread(runnable, "gitlet-worker");
+            worker.setDaemon(true);
+            return worker;
+        });
+        try {
+            List<Future<R>> futures = new ArrayList<>(items.size());
+            for (T item : items) {
+                futures.add(pool.submit(() -> task.apply(item)));
+            }
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted while waiting for worker threads.");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Returns the configured number of worker threads, at least 1. */
+    static int threads() {
+        int threads = Config.getInt("threads", Runtime.getRuntime().availableProcessors());
+        return Math.max(1, threads);
+    }
+}
@@ -0,0 +1,271 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Reachability bitmaps over the rows of the CommitGraph. The bitmap of a
+ *  commit has the bit of its own row and of every ancestor's row set, so
+ *  "is X an ancestor of Y" is one bit test and "which commits of A are not in
+ *  B" one and-not of two bitmaps. Bitmaps of selected commits, the branch tips
+ *  that merge and gc ask about, are kept in objects/bitmaps, compressed as
+ *      raw commitId (20 bytes) | word count (int) | EWAH words (long)
+ *  after a magic number, version and the raw id of graph row 0, since row
+ *  numbers are only meaningful for the graph they were taken from. An EWAH
+ *  marker word holds a fill bit (bit 0), a count of 64-bit words that are all
+ *  fill bits (bits 1-32) and a count of literal words that follow it (bits
+ *  33-63), so the long runs of ancestors and of non-ancestors in a bitmap take
+ *  a word each. The bitmap of any other commit is found by walking down from
+ *  it in decreasing row order, which is topological, and taking the stored
+ *  bitmap of the first commit on each path that has one, so the walk only
+ *  covers the commits made since those bitmaps were stored.
+ *  @author Sophia Xia
+ */
+class Reachability {
+
+    /** File that the stored bitmaps are kept in. */
+    static final File BITMAPS = join(Commit.OBJECT_FOLDER, "bitmaps");
+
+    private static final int MAGIC = 0x47424d50; // "GBMP"
+
+    private static final int VERSION = 1;
+
+    private static final long FILL_MASK = 1L;
+
+    private static final int MAX_RUN = (1 << 31) - 1;
+
+    private static final int MAX_LITERALS = (1 << 30) - 1;
+
+    /** The bitmaps loaded by this process, null until first needed. */
+    private static Reachability loaded;
+
+    private final CommitGraph graph;
+
+    /** Compressed bitmap of each row that has one stored. */
+    private final Map<Integer, long[]> stored = new HashMap<>();
+
+    /** Creates bitmaps over GRAPH, none stored yet, kept in memory only unless
+     *  they are the ones load returns. */
+    Reachability(CommitGraph graph) {
+        this.graph = graph;
+    }
+
+    /** Returns the reachability bitmaps over the commit graph of this
+     *  repository, reading the stored ones on first use. */
+    static Reachability load() {
+        if (loaded == null) {
+            loaded = new Reachability(CommitGraph.load());
+            loaded.read();
+        }
+        return loaded;
+    }
+
+    /** Forgets the loaded bitmaps, so the next use reads them again. */
+    static void unload() {
+        loaded = null;
+    }
+
+    /**
+     * Finds every commit reachable from a commit.
+     * @param row: row of the commit.
+     * @param keep: whether to store the bitmap of the commit, for a branch tip.
+     * @return bitmap of the rows of the commit and all of its ancestors.
+     */
+    BitSet reachable(int row, boolean keep) {
+        BitSet own = storedBitmap(row);
+        if (own != null) {
+            return own;
+        }
+        BitSet result = new BitSet(row + 1);
+        BitSet start = new BitSet(row + 1);
+        start.set(row);
+        addReachable(start, result);
+        if (keep) {
+            store(row, result);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the commits reachable from several commits to a bitmap, without
+     * walking below the commits that it has already.
+     * @param rows: rows of the commits.
+     * @param result: bitmap that each of them and their ancestors are added to;
+     *                the ancestors of every row it has must be in it too.
+     */
+    void addReachable(BitSet rows, BitSet result) {
+        BitSet pending = (BitSet) rows.clone();
+        for (int x = pending.length() - 1; x >= 0; x = pending.previousSetBit(x - 1)) {
+            if (result.get(x)) {
+                continue;
+            }
+            BitSet bitmap = storedBitmap(x);
+            if (bitmap != null) {
+                result.or(bitmap);
+                continue;
+            }
+            result.set(x);
+            int first = graph.firstParent(x);
+            int second = graph.secondParent(x);
+            if (first != CommitGraph.NONE && !result.get(first)) {
+                pending.set(first);
+            }
+            if (second != CommitGraph.NONE && !result.get(second)) {
+                pending.set(second);
+            }
+        }
+    }
+
+    /**
+     * Checks ancestry with one bit test of the descendant's bitmap.
+     * @param ancestor: row of the candidate ancestor.
+     * @param descendant: row of the candidate descendant, a branch tip whose
+     *                    bitmap is stored if it is not yet.
+     * @return true iff ANCESTOR is DESCENDANT or one of its ancestors.
+     */
+    boolean isAncestor(int ancestor, int descendant) {
+        return reachable(descendant, true).get(ancestor);
+    }
+
+    /** Returns the stored bitmap of ROW, or null if there is none. A bitmap
+     *  whose last bit, the commit's own row since parents come first, is not
+     *  ROW is from another graph and is dropped. */
+    private BitSet storedBitmap(int row) {
+        long[] words = stored.get(row);
+        if (words == null) {
+            return null;
+        }
+        BitSet bitmap = BitSet.valueOf(decode(words));
+        if (bitmap.length() != row + 1) {
+            stored.remove(row);
+            return null;
+        }
+        return bitmap;
+    }
+
+    /** Returns the number of stored bitmaps and their total size in words. */
+    long[] storedSize() {
+        long words = 0;
+        for (long[] bitmap : stored.values()) {
+            words += bitmap.length;
+        }
+        return new long[] {stored.size(), words};
+    }
+
+    /** Adds the bitmap BITS of ROW to the stored bitmaps. */
+    private void store(int row, BitSet bits) {
+        long[] words = encode(bits.toLongArray());
+        stored.put(row, words);
+        if (this != loaded) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(BITMAPS, true)))) {
+            if (BITMAPS.length() == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(rawId(graph.idAt(0)));
+            }
+            out.write(rawId(graph.idAt(row)));
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        } catch (IOException e) {
+            throw error("Could not write file " + BITMAPS.toPath());
+        }
+    }
+
+    /** Reads the stored bitmaps. Bitmaps taken from another graph, as when the
+     *  commit graph was rebuilt, are dropped, as is an entry cut short by an
+     *  interrupted write. */
+    private void read() {
+        if (!BITMAPS.isFile()) {
+            return;
+        }
+        byte[] bytes = readContents(BITMAPS);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        int header = 8 + RAW_UID_LENGTH;
+        if (bytes.length < header || buf.getInt() != MAGIC || buf.getInt() != VERSION
+                || graph.size() == 0 || !hexId(bytes, 8).equals(graph.idAt(0))) {
+            Repository.deleteIfExists(BITMAPS);
+            return;
+        }
+        buf.position(header);
+        while (buf.remaining() >= RAW_UID_LENGTH + 4) {
+            String commitId = hexId(bytes, buf.position());
+            buf.position(buf.position() + RAW_UID_LENGTH);
+            int count = buf.getInt();
+            if (buf.remaining() < 8L * count) {
+                break;
+            }
+            long[] words = new long[count];
+            buf.asLongBuffer().get(words);
+            buf.position(buf.position() + 8 * count);
+            int row = graph.indexOf(commitId);
+            if (row != CommitGraph.NONE) {
+                stored.put(row, words);
+            }
+        }
+    }
+
+    /** Returns the EWAH encoding of the bitmap words WORDS. */
+    static long[] encode(long[] words) {
+        long[] out = new long[words.length + words.length / 2 + 2];
+        int size = 0;
+        int i = 0;
+        while (i < words.length) {
+            long fill = (words[i] == -1L) ? 1 : 0;
+            int run = 0;
+            while (i < words.length && run < MAX_RUN
+                    && (words[i] == 0 || words[i] == -1L) && (words[i] & 1) == fill) {
+                run += 1;
+                i += 1;
+            }
+            int start = i;
+            while (i < words.length && i - start < MAX_LITERALS
+                    && words[i] != 0 && words[i] != -1L) {
+                i += 1;
+            }
+            if (size + 1 + i - start > out.length) {
+                out = Arrays.copyOf(out, 2 * (size + 1 + i - start));
+            }
+            out[size] = fill | ((long) run << 1) | ((long) (i - start) << 33);
+            System.arraycopy(words, start, out, size + 1, i - start);
+            size += 1 + i - start;
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    /** Returns the bitmap words of the EWAH encoding WORDS. */
+    static long[] decode(long[] words) {
+        int length = 0;
+        for (int i = 0; i < words.length; i += 1 + (int) (words[i] >>> 33)) {
+            length += (int) ((words[i] >>> 1) & 0xffffffffL) + (int) (words[i] >>> 33);
+        }
+        long[] out = new long[length];
+        int size = 0;
+        for (int i = 0; i < words.length; ) {
+            long marker = words[i];
+            int run = (int) ((marker >>> 1) & 0xffffffffL);
+            int literals = (int) (marker >>> 33);
+            if ((marker & FILL_MASK) != 0) {
+                Arrays.fill(out, size, size + run, -1L);
+            }
+            size += run;
+            System.arraycopy(words, i + 1, out, size, literals);
+            size += literals;
+            i += 1 + literals;
+        }
+        return out;
+    }
+}
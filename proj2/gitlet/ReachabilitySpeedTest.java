@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Performs a timing test of ancestry checks with reachability bitmaps against
+ *  the generation-pruned walk of MergeBase.isAncestor, on a synthetic history
+ *  of long-lived branches that merge each other now and then. As merge and gc
+ *  do, the bitmap of each branch tip is stored every INTERVAL commits; each
+ *  query then asks whether a random commit is an ancestor of a branch tip.
+ *  The answers of both methods are compared, and the size of the compressed
+ *  bitmaps reported.
+ *  Usage: java gitlet.ReachabilitySpeedTest [COMMITS] [BRANCHES] [QUERIES] [INTERVAL]
+ *  @author Sophia Xia
+ */
+public class ReachabilitySpeedTest {
+
+    /** Builds the history and times the ancestry queries. ARGS optionally holds
+     *  the number of commits, branches and queries and the interval of tips. */
+    public static void main(String[] args) {
+        int commits = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int branches = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        int queries = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+        int interval = (args.length > 3) ? Integer.parseInt(args[3]) : 5000;
+        Random random = new Random(67);
+
+        CommitGraph graph = new CommitGraph();
+        Reachability reachability = new Reachability(graph);
+        int[] tips = new int[branches];
+        tips[0] = graph.append(sha1("0"), CommitGraph.NONE, CommitGraph.NONE, 0);
+        for (int i = 1; i < branches; i += 1) {
+            tips[i] = tips[0];
+        }
+        while (graph.size() < commits) {
+            int branch = random.nextInt(branches);
+            String id = sha1(Integer.toString(graph.size()));
+            int other = (random.nextInt(50) == 0) ? tips[random.nextInt(branches)] : CommitGraph.NONE;
+            tips[branch] = graph.append(id, tips[branch], other, graph.size());
+            if (graph.size() % interval == 0) {
+                for (int tip : tips) {
+                    reachability.reachable(tip, true);
+                }
+            }
+        }
+
+        System.out.printf("History of %d commits on %d branches, %d queries.%n",
+                graph.size(), branches, queries);
+        int[][] pairs = new int[queries][];
+        for (int q = 0; q < queries; q += 1) {
+            pairs[q] = new int[] {random.nextInt(graph.size()), tips[random.nextInt(branches)]};
+        }
+        boolean[] expected = new boolean[queries];
+        for (int q = 0; q < queries; q += 1) {  // warm-up, and the expected answers
+            expected[q] = MergeBase.isAncestor(graph, pairs[q][0], pairs[q][1]);
+        }
+        long start = System.nanoTime();
+        for (int[] pair : pairs) {
+            MergeBase.isAncestor(graph, pair[0], pair[1]);
+        }
+        double walkSeconds = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        int mismatches = 0;
+        int ancestors = 0;
+        for (int q = 0; q < queries; q += 1) {
+            boolean answer = reachability.isAncestor(pairs[q][0], pairs[q][1]);
+            mismatches += (answer != expected[q]) ? 1 : 0;
+            ancestors += answer ? 1 : 0;
+        }
+        double bitmapSeconds = (System.nanoTime() - start) / 1e9;
+        BitSet full = reachability.reachable(tips[0], false);
+        long[] size = reachability.storedSize();
+        System.out.printf("Generation-pruned walk: %.3f ms/query%n", walkSeconds * 1000 / queries);
+        System.out.printf("Reachability bitmaps:   %.3f ms/query%n", bitmapSeconds * 1000 / queries);
+        System.out.printf("%d of %d were ancestors, %d mismatches.%n", ancestors, queries, mismatches);
+        System.out.printf("%d bitmaps stored in %d bytes, %d bytes each uncompressed.%n",
+                size[0], 8 * size[1], full.toLongArray().length * 8L);
+    }
+}
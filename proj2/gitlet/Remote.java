@@ -0,0 +1,507 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** Fetch and push between repositories on the same machine. The remote
+ *  repository is served by a second gitlet process started in its working
+ *  directory, `gitlet upload-pack BRANCH` to fetch from it or `gitlet
+ *  receive-pack BRANCH` to push to it, that talks over its standard input and
+ *  output. First the server sends the head of BRANCH, 0 (byte) if there is no
+ *  such branch or 1 (byte) and its raw id; to push, the client then sends 0 to
+ *  stop or 1 and the raw id of the new head.
+ *  Then the side that has the commits, the sender, negotiates what to send. It
+ *  walks back from the head in decreasing commit-graph row, so children before
+ *  parents, and asks about batches of commits
+ *      count (int) | raw commitIds
+ *  to which the receiver answers one boolean per commit, whether it has it.
+ *  The ancestors of a commit the receiver has are dropped from the walk, using
+ *  the reachability bitmaps, and a count of 0 ends it: the commits answered
+ *  false are the ones to send. They go in one streamed bundle
+ *      magic (int) | version (int) | objects | END (byte)
+ *  where each object is type (byte) | raw id | length (int) | contents: the
+ *  blobs and trees of the commits that the receiver cannot have already, since
+ *  they are not in the trees of the commits it has where the walk stopped, and
+ *  then the commits, parents first. The receiver checks every object against
+ *  its id and stores it unless it has it: a tree once the trees and blobs it
+ *  lists are stored, a manifest once its chunks are, and a commit once its
+ *  parents and tree are. receive-pack only moves the branch to the pushed
+ *  head if that commit was stored and the old head is one of its ancestors.
+ *  The client reports a running count of objects and bytes and the throughput
+ *  on standard error when it is a terminal or `gitlet config progress true`.
+ *  @author Sophia Xia
+ */
+class Remote {
+
+    /** Number of commits asked about at once during negotiation. */
+    private static final int BATCH = 256;
+
+    private static final int MAGIC = 0x4742444c; // "GBDL"
+
+    private static final int VERSION = 1;
+
+    /** Type byte that ends a bundle. */
+    private static final byte END = -1;
+
+    /**
+     * Fetches a branch of a remote repository into this one.
+     * @param remoteGitlet: .gitlet directory of the remote repository.
+     * @param branch: name of the branch in the remote repository.
+     * @return id of the head of the branch, now stored here with its history.
+     */
+    static String fetch(File remoteGitlet, String branch) {
+        try (Connection remote = new Connection(remoteGitlet, "upload-pack", branch)) {
+            try {
+                if (!remote.in.readBoolean()) {
+                    throw error("That remote does not have that branch.");
+                }
+                String head = readId(remote.in);
+                answerHaves(remote.in, remote.out);
+                receiveBundle(remote.in, new Progress("Receiving", true));
+                return head;
+            } catch (IOException e) {
+                throw remote.failure();
+            }
+        }
+    }
+
+    /**
+     * Pushes a commit and its history to a branch of a remote repository,
+     * which must be an ancestor of the commit, or missing.
+     * @param remoteGitlet: .gitlet directory of the remote repository.
+     * @param branch: name of the branch in the remote repository.
+     * @param head: id of the commit to become the head of the branch.
+     */
+    static void push(File remoteGitlet, String branch, String head) {
+        try (Connection remote = new Connection(remoteGitlet, "receive-pack", branch)) {
+            try {
+                CommitGraph graph = CommitGraph.load();
+                int headRow = graph.indexOf(head);
+                if (remote.in.readBoolean()) {
+                    String remoteHead = readId(remote.in);
+                    int remoteRow = ObjectStore.contains(ObjectStore.COMMIT, remoteHead)
+                            ? graph.indexOf(remoteHead) : CommitGraph.NONE;
+                    if (remoteRow == CommitGraph.NONE
+                            || !Reachability.load().isAncestor(remoteRow, headRow)) {
+                        remote.out.writeBoolean(false);
+                        remote.out.flush();
+                        throw error("Please pull down remote changes before pushing.");
+                    }
+                }
+                remote.out.writeBoolean(true);
+                remote.out.write(rawId(head));
+                sendCommits(remote.in, remote.out, headRow, new Progress("Sending", true));
+                remote.in.readBoolean();
+            } catch (IOException e) {
+                throw remote.failure();
+            }
+        }
+    }
+
+    /**
+     * Serves `gitlet upload-pack`: sends the head of a branch of this
+     * repository and the commits that the client lacks.
+     * @param branch: name of the branch.
+     */
+    static void serveUpload(String branch) {
+        DataInputStream in = serverInput();
+        DataOutputStream out = serverOutput();
+        try {
+            String head = Repository.getBranchReference(branch);
+            out.writeBoolean(head != null);
+            if (head == null) {
+                out.flush();
+                return;
+            }
+            out.write(rawId(head));
+            int headRow = CommitGraph.load().indexOf(head);
+            sendCommits(in, out, headRow, new Progress("Sending", false));
+        } catch (IOException e) {
+            throw error("Lost connection to the client.");
+        }
+    }
+
+    /**
+     * Serves `gitlet receive-pack`: sends the head of a branch of this
+     * repository, receives the commits it lacks and moves the branch.
+     * @param branch: name of the branch.
+     */
+    static void serveReceive(String branch) {
+        DataInputStream in = serverInput();
+        DataOutputStream out = serverOutput();
+        try {
+            String head = Repository.getBranchReference(branch);
+            out.writeBoolean(head != null);
+            if (head != null) {
+                out.write(rawId(head));
+            }
+            out.flush();
+            if (!in.readBoolean()) {
+                return;
+            }
+            String newHead = readId(in);
+            answerHaves(in, out);
+            receiveBundle(in, new Progress("Receiving", false));
+            CommitGraph graph = CommitGraph.load();
+            if (!ObjectStore.contains(ObjectStore.COMMIT, newHead)) {
+                throw error("The pushed commit %s was not received.", newHead);
+            }
+            if (head != null && !Reachability.load().isAncestor(graph.indexOf(head),
+                    graph.indexOf(newHead))) {
+                throw error("Please pull down remote changes before pushing.");
+            }
+            Repository.setBranchReference(branch, newHead);
+            out.writeBoolean(true);
+            out.flush();
+        } catch (IOException e) {
+            throw error("Lost connection to the client.");
+        }
+    }
+
+    /** Negotiates which commits of ROW and its ancestors the receiver lacks,
+     *  then sends them in a bundle. */
+    private static void sendCommits(DataInputStream in, DataOutputStream out, int row,
+                                    Progress progress) throws IOException {
+        CommitGraph graph = CommitGraph.load();
+        Reachability reachability = Reachability.load();
+        BitSet pending = new BitSet();
+        BitSet missing = new BitSet();
+        BitSet present = new BitSet();
+        BitSet frontier = new BitSet();
+        pending.set(row);
+        while (true) {
+            int[] batch = new int[BATCH];
+            int size = 0;
+            for (int x = pending.length() - 1; x >= 0 && size < BATCH;
+                 x = pending.previousSetBit(x - 1)) {
+                batch[size] = x;
+                size += 1;
+                pending.clear(x);
+                for (int parent : new int[] {graph.firstParent(x), graph.secondParent(x)}) {
+                    if (parent != CommitGraph.NONE && !present.get(parent)) {
+                        pending.set(parent);
+                    }
+                }
+            }
+            out.writeInt(size);
+            if (size == 0) {
+                break;
+            }
+            for (int i = 0; i < size; i += 1) {
+                out.write(rawId(graph.idAt(batch[i])));
+            }
+            out.flush();
+            BitSet has = new BitSet();
+            for (int i = 0; i < size; i += 1) {
+                (in.readBoolean() ? has : missing).set(batch[i]);
+            }
+            has.andNot(present);
+            frontier.or(has);
+            reachability.addReachable(has, present);
+            pending.andNot(present);
+        }
+        writeBundle(out, missing, frontier, progress);
+    }
+
+    /** Answers the questions of sendCommits about which commits are stored here. */
+    private static void answerHaves(DataInputStream in, DataOutputStream out)
+            throws IOException {
+        for (int size = in.readInt(); size > 0; size = in.readInt()) {
+            for (int i = 0; i < size; i += 1) {
+                out.writeBoolean(ObjectStore.contains(ObjectStore.COMMIT, readId(in)));
+            }
+            out.flush();
+        }
+    }
+
+    /** Sends the commits at the MISSING rows with the trees and blobs they
+     *  use, except those used by the commits at the FRONTIER rows. */
+    private static void writeBundle(DataOutputStream out, BitSet missing, BitSet frontier,
+                                    Progress progress) throws IOException {
+        CommitGraph graph = CommitGraph.load();
+        Set<String> known = new HashSet<>();
+        for (int x = frontier.nextSetBit(0); x >= 0; x = frontier.nextSetBit(x + 1)) {
+            addTree(Commit.fromObject(graph.idAt(x)).getTreeId(), known);
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (int x = missing.nextSetBit(0); x >= 0; x = missing.nextSetBit(x + 1)) {
+            writeTree(out, Commit.fromObject(graph.idAt(x)).getTreeId(), known, progress);
+        }
+        for (int x = missing.nextSetBit(0); x >= 0; x = missing.nextSetBit(x + 1)) {
+            String commitId = graph.idAt(x);
+            writeObject(out, ObjectStore.COMMIT, commitId,
+                    ObjectStore.read(ObjectStore.COMMIT, commitId), progress);
+        }
+        out.writeByte(END);
+        out.flush();
+        progress.done();
+    }
+
+    /** Adds the id of TREEID and of every tree and blob below it to KNOWN. */
+    private static void addTree(String treeId, Set<String> known) {
+        if (!known.add(treeId)) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : Tree.read(treeId).entrySet()) {
+            if (Tree.isTree(entry.getKey())) {
+                addTree(entry.getValue(), known);
+            } else {
+                known.add(entry.getValue());
+            }
+        }
+    }
+
+    /** Sends TREEID and the trees and blobs below it that are not KNOWN, each
+     *  before the tree that lists it, and adds them to KNOWN. */
+    private static void writeTree(DataOutputStream out, String treeId, Set<String> known,
+                                  Progress progress) throws IOException {
+        if (!known.add(treeId)) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : Tree.read(treeId).entrySet()) {
+            if (Tree.isTree(entry.getKey())) {
+                writeTree(out, entry.getValue(), known, progress);
+            } else if (known.add(entry.getValue())) {
+                writeBlob(out, entry.getValue(), known, progress);
+            }
+        }
+        writeObject(out, ObjectStore.TREE, treeId,
+                ObjectStore.read(ObjectStore.TREE, treeId), progress);
+    }
+
+    /** Sends blob BLOBID: a chunked blob as its manifest and the chunks not
+     *  KNOWN, any other blob in full. */
+    private static void writeBlob(DataOutputStream out, String blobId, Set<String> known,
+                                  Progress progress) throws IOException {
+        byte[] manifest = ObjectStore.readStored(ObjectStore.MANIFEST, blobId);
+        if (manifest == null) {
+            writeObject(out, ObjectStore.BLOB, blobId,
+                    ObjectStore.read(ObjectStore.BLOB, blobId), progress);
+            return;
+        }
+        for (String chunkId : Chunker.chunkIds(manifest)) {
+            if (known.add(chunkId)) {
+                writeObject(out, ObjectStore.BLOB, chunkId,
+                        ObjectStore.read(ObjectStore.BLOB, chunkId), progress);
+            }
+        }
+        writeObject(out, ObjectStore.MANIFEST, blobId, manifest, progress);
+    }
+
+    /** Sends one object of the bundle. */
+    private static void writeObject(DataOutputStream out, int type, String id, byte[] contents,
+                                    Progress progress) throws IOException {
+        if (contents == null) {
+            throw error("Object %s is missing from the repository.", id);
+        }
+        out.writeByte(type);
+        out.write(rawId(id));
+        out.writeInt(contents.length);
+        out.write(contents);
+        progress.add(contents.length);
+    }
+
+    /** Stores the objects of a bundle, checking each against its id. */
+    private static void receiveBundle(DataInputStream in, Progress progress) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw error("Unrecognized bundle from the remote repository.");
+        }
+        for (byte type = in.readByte(); type != END; type = in.readByte()) {
+            String id = readId(in);
+            byte[] contents = new byte[in.readInt()];
+            in.readFully(contents);
+            progress.add(contents.length);
+            if (type != ObjectStore.BLOB && type != ObjectStore.TREE
+                    && type != ObjectStore.MANIFEST && type != ObjectStore.COMMIT) {
+                throw error("Received an object %s of unknown type %d.", id, type);
+            }
+            if ((type == ObjectStore.BLOB && !sha1((Object) contents).equals(id))
+                    || (type == ObjectStore.TREE && !isCompleteTree(id, contents))
+                    || (type == ObjectStore.MANIFEST && !isManifestOf(id, contents))) {
+                throw error("Received a corrupt object %s.", id);
+            }
+            if (type == ObjectStore.COMMIT) {
+                Commit.saveReceived(id, contents);
+            } else if (!ObjectStore.contains(type, id)) {
+                ObjectStore.writeLoose(type, id, contents);
+            }
+        }
+        SearchIndex.load().update(CommitLog.load());
+        progress.done();
+    }
+
+    /** Returns true iff CONTENTS encode the tree TREEID and every tree and
+     *  blob that it lists is stored. */
+    private static boolean isCompleteTree(String treeId, byte[] contents) {
+        if (!Tree.isIdOf(treeId, contents)) {
+            return false;
+        }
+        try {
+            for (Map.Entry<String, String> entry : Tree.decode(contents).entrySet()) {
+                int type = Tree.isTree(entry.getKey()) ? ObjectStore.TREE : ObjectStore.BLOB;
+                if (!ObjectStore.contains(type, entry.getValue())) {
+                    return false;
+                }
+            }
+        } catch (RuntimeException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns true iff the chunks listed in MANIFEST are stored and make up
+     *  the contents of blob BLOBID, read one chunk at a time. */
+    private static boolean isManifestOf(String blobId, byte[] manifest) {
+        MessageDigest md = sha1Digest();
+        try {
+            List<String> chunkIds = Chunker.chunkIds(manifest);
+            for (int k = 0; k < chunkIds.size(); k += 1) {
+                byte[] chunk = ObjectStore.readStored(ObjectStore.BLOB, chunkIds.get(k));
+                if (chunk == null || chunk.length != Chunker.chunkLength(manifest, k)) {
+                    return false;
+                }
+                md.update(chunk);
+            }
+        } catch (RuntimeException e) {
+            return false;
+        }
+        return hexId(md.digest(), 0).equals(blobId);
+    }
+
+    /** Reads a raw id from IN and returns it in hexadecimal. */
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] raw = new byte[RAW_UID_LENGTH];
+        in.readFully(raw);
+        return hexId(raw, 0);
+    }
+
+    /** Returns the standard input of a server process. */
+    private static DataInputStream serverInput() {
+        return new DataInputStream(new BufferedInputStream(
+                new FileInputStream(FileDescriptor.in), STREAM_BUFFER));
+    }
+
+    /** Returns the standard output of a server process, for the protocol only:
+     *  whatever else the server prints goes to standard error instead. */
+    private static DataOutputStream serverOutput() {
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), STREAM_BUFFER));
+    }
+
+    /** A server process started for a remote repository. */
+    private static class Connection implements AutoCloseable {
+        private final Process process;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        /** Starts `gitlet COMMAND BRANCH` in the working directory of REMOTEGITLET. */
+        Connection(File remoteGitlet, String command, String branch) {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+                    System.getProperty("java.class.path"), "gitlet.Main", command, branch)
+                    .directory(remoteGitlet.getAbsoluteFile().getParentFile());
+            try {
+                process = builder.start();
+            } catch (IOException e) {
+                throw error("Could not start gitlet in " + remoteGitlet.getParent());
+            }
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream(),
+                    STREAM_BUFFER));
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(),
+                    STREAM_BUFFER));
+        }
+
+        /** Returns the error that ended the server early, as it reported it. */
+        GitletException failure() {
+            String message = "";
+            try {
+                process.getOutputStream().close();
+                process.waitFor();
+                message = new String(process.getErrorStream().readAllBytes(),
+                        StandardCharsets.UTF_8).trim();
+            } catch (IOException | InterruptedException e) {
+                // reported below
+            }
+            return error(message.isEmpty() ? "Lost connection to the remote repository." : message);
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the server has exited already
+            }
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroy();
+            }
+        }
+    }
+
+    /** A running count of the objects and bytes of a bundle. */
+    private static class Progress {
+        /** Time between two reports, in nanoseconds. */
+        private static final long INTERVAL = 100_000_000L;
+
+        private final String action;
+        private final boolean shown;
+        private final long start = System.nanoTime();
+        private long lastShown = start;
+        private long objects;
+        private long bytes;
+
+        /** Counts objects being sent or received, as ACTION says; reports them
+         *  only if REPORT and the user can see it. */
+        Progress(String action, boolean report) {
+            this.action = action;
+            this.shown = report && (Daemon.console()
+                    || Config.getBoolean("progress", false));
+        }
+
+        /** Counts one object of SIZE bytes. */
+        void add(long size) {
+            objects += 1;
+            bytes += size;
+            long now = System.nanoTime();
+            if (shown && now - lastShown > INTERVAL) {
+                lastShown = now;
+                report("");
+            }
+        }
+
+        /** Reports the final count. */
+        void done() {
+            if (shown) {
+                report(", done." + System.lineSeparator());
+            }
+        }
+
+        private void report(String end) {
+            double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+            System.err.printf("\r%s objects: %d, %.2f MiB | %.2f MiB/s%s", action, objects,
+                    bytes / 1048576.0, bytes / 1048576.0 / seconds, end);
+        }
+    }
+}
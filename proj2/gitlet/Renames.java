@@ -0,0 +1,240 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/** Rename and copy detection between two versions of the files. A file that
+ *  appeared in the new version came from a file of the old one if it has the
+ *  same blob id, or else if enough of its lines are shared with it.
+ *  The share of lines is estimated by MinHash: the signature of a file is,
+ *  for each of HASHES hash functions, the least hash of any of its lines, and
+ *  two files agree in a slot of their signatures with probability equal to the
+ *  Jaccard similarity of their sets of lines. To avoid comparing every pair,
+ *  the signatures are cut into bands of ROWS slots and only files that agree
+ *  in a whole band are compared, at most MAX_CANDIDATES of them per new file,
+ *  so the work grows with the number of changed files rather than with its
+ *  square. A band shared by more than MAX_BUCKET old files, as when many
+ *  files are made of the same lines, says too little and is ignored.
+ *  @author Sophia Xia
+ */
+class Renames {
+
+    /** Least similarity, in percent, of a file and the file it came from. */
+    static final int THRESHOLD = 50;
+
+    private static final int HASHES = 64;
+
+    private static final int ROWS = 4;
+
+    private static final int MAX_CANDIDATES = 16;
+
+    private static final int MAX_BUCKET = 64;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Seed of each of the hash functions. */
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        long seed = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < HASHES; i += 1) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    /** The file that a new file came from. */
+    static class Match {
+        /** Path of the file in the old version. */
+        final String source;
+        /** Whether the file is still in the new version, so this is a copy. */
+        final boolean copy;
+        /** Similarity in percent, 100 for the same blob id. */
+        final int score;
+
+        Match(String source, boolean copy, int score) {
+            this.source = source;
+            this.copy = copy;
+            this.score = score;
+        }
+
+        /** Returns a description such as "renamed from a.txt, 87%". */
+        String describe() {
+            return (copy ? "copied" : "renamed") + " from " + source
+                    + ((score < 100) ? ", " + score + "%" : "");
+        }
+    }
+
+    /**
+     * Finds where the new files of a change came from.
+     * @param deleted: path and blob id of each file only in the old version,
+     *                 which the new files can be renamed from.
+     * @param added: path and blob id of each file only in the new version.
+     * @param copySources: path and blob id in the old version of other files
+     *                     that the new files can be copied from.
+     * @param addedContents: reads the contents of a new file from its path.
+     * @return the match of each new file that came from an old one, by path.
+     */
+    static Map<String, Match> detect(Map<String, String> deleted, Map<String, String> added,
+                                     Map<String, String> copySources,
+                                     Function<String, byte[]> addedContents) {
+        Map<String, Match> matches = new TreeMap<>();
+        if (added.isEmpty() || (deleted.isEmpty() && copySources.isEmpty())) {
+            return matches;
+        }
+        Map<String, List<String>> deletedByBlob = new HashMap<>();
+        for (Map.Entry<String, String> file : new TreeMap<>(deleted).entrySet()) {
+            deletedByBlob.computeIfAbsent(file.getValue(), k -> new ArrayList<>())
+                    .add(file.getKey());
+        }
+        Map<String, String> copiesByBlob = new HashMap<>();
+        for (Map.Entry<String, String> file : new TreeMap<>(copySources).entrySet()) {
+            copiesByBlob.putIfAbsent(file.getValue(), file.getKey());
+        }
+        Set<String> used = new HashSet<>();
+        List<String> rest = new ArrayList<>();
+        for (Map.Entry<String, String> file : new TreeMap<>(added).entrySet()) {
+            List<String> same = deletedByBlob.getOrDefault(file.getValue(), new ArrayList<>());
+            String source = same.stream().filter(path -> !used.contains(path))
+                    .findFirst().orElse(null);
+            if (source != null) {
+                used.add(source);
+                matches.put(file.getKey(), new Match(source, false, 100));
+            } else if (!same.isEmpty()) {
+                matches.put(file.getKey(), new Match(same.get(0), true, 100));
+            } else if (copiesByBlob.containsKey(file.getValue())) {
+                matches.put(file.getKey(),
+                        new Match(copiesByBlob.get(file.getValue()), true, 100));
+            } else {
+                rest.add(file.getKey());
+            }
+        }
+        if (!rest.isEmpty()) {
+            matchSimilar(deleted, copySources, rest, addedContents, used, matches);
+        }
+        return matches;
+    }
+
+    /** Matches the new files REST to the most similar old files, deleted or
+     *  copy sources, adding to MATCHES and to USED, the deleted files renamed. */
+    private static void matchSimilar(Map<String, String> deleted,
+                                     Map<String, String> copySources, List<String> rest,
+                                     Function<String, byte[]> addedContents,
+                                     Set<String> used, Map<String, Match> matches) {
+        List<String> sources = new ArrayList<>();
+        List<long[]> signatures = new ArrayList<>();
+        TreeMap<String, String> candidates = new TreeMap<>(copySources);
+        candidates.putAll(deleted);
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (Map.Entry<String, String> file : candidates.entrySet()) {
+            long[] signature = signature(Commit.readFileBlob(file.getValue()));
+            if (signature == null) {
+                continue;
+            }
+            for (int band = 0; band < HASHES / ROWS; band += 1) {
+                buckets.computeIfAbsent(bandKey(signature, band), k -> new ArrayList<>())
+                        .add(sources.size());
+            }
+            sources.add(file.getKey());
+            signatures.add(signature);
+        }
+        if (sources.isEmpty()) {
+            return;
+        }
+        List<int[]> pairs = new ArrayList<>(); // {score, target, source}
+        for (int t = 0; t < rest.size(); t += 1) {
+            long[] signature = signature(addedContents.apply(rest.get(t)));
+            if (signature == null) {
+                continue;
+            }
+            Map<Integer, Integer> hits = new HashMap<>();
+            for (int band = 0; band < HASHES / ROWS; band += 1) {
+                List<Integer> bucket = buckets.get(bandKey(signature, band));
+                if (bucket != null && bucket.size() <= MAX_BUCKET) {
+                    for (int s : bucket) {
+                        hits.merge(s, 1, Integer::sum);
+                    }
+                }
+            }
+            final int target = t;
+            hits.entrySet().stream()
+                    .sorted(Map.Entry.<Integer, Integer>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .limit(MAX_CANDIDATES)
+                    .forEach(hit -> {
+                        int score = similarity(signature, signatures.get(hit.getKey()));
+                        if (score >= THRESHOLD) {
+                            pairs.add(new int[] {score, target, hit.getKey()});
+                        }
+                    });
+        }
+        pairs.sort(Comparator.<int[]>comparingInt(pair -> -pair[0])
+                .thenComparingInt(pair -> pair[1]).thenComparingInt(pair -> pair[2]));
+        for (int[] pair : pairs) {
+            String target = rest.get(pair[1]);
+            String source = sources.get(pair[2]);
+            if (matches.containsKey(target)) {
+                continue;
+            }
+            boolean rename = deleted.containsKey(source) && used.add(source);
+            matches.put(target, new Match(source, !rename, pair[0]));
+        }
+    }
+
+    /** Returns the MinHash signature of the lines of CONTENTS, or null if it
+     *  has none. */
+    static long[] signature(byte[] contents) {
+        if (contents.length == 0) {
+            return null;
+        }
+        long[] signature = new long[HASHES];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < contents.length; i += 1) {
+            hash = (hash ^ (contents[i] & 0xff)) * FNV_PRIME;
+            if (contents[i] == '\n' || i == contents.length - 1) {
+                for (int k = 0; k < HASHES; k += 1) {
+                    signature[k] = Math.min(signature[k], mix(hash ^ SEEDS[k]));
+                }
+                hash = FNV_OFFSET;
+            }
+        }
+        return signature;
+    }
+
+    /** Returns the estimated similarity in percent of the files with
+     *  signatures A and B, the share of slots in which they agree. */
+    static int similarity(long[] a, long[] b) {
+        int same = 0;
+        for (int k = 0; k < HASHES; k += 1) {
+            same += (a[k] == b[k]) ? 1 : 0;
+        }
+        return 100 * same / HASHES;
+    }
+
+    /** Returns the key of band BAND of SIGNATURE. */
+    private static long bandKey(long[] signature, int band) {
+        long key = band;
+        for (int k = band * ROWS; k < (band + 1) * ROWS; k += 1) {
+            key = mix(key ^ signature[k]);
+        }
+        return key;
+    }
+
+    /** Returns the 64-bit finalizer of SplitMix64 applied to X. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -1,12 +1,16 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static gitlet.Utils.*;
 
@@ -41,13 +45,11 @@ public class Repository {
     /**
      * Set up Gitlet Persistence
      * .gitlet/ -- top level folder for all persistent data
-     *     - staged_add -- staging area for files to be added
+     *     - index -- staging area, the files to be added or removed
      *     - objects -- file-system hashtable
-     *     - index -- maps associated with the commits
      */
     public static void setupPersistence() {
-        STAGED_ADD_FOLDER.mkdirs();
-        STAGED_RM_FOLDER.mkdirs();
+        GITLET_DIR.mkdirs();
         createNewFile(HEAD);
         REFS.mkdirs();
     }
@@ -71,29 +73,67 @@ public class Repository {
 
     /**
      * Supporting `gitlet add` command.
-     * Adds a copy of the file as it currently exits to the staging area.
+     * Adds a copy of each file as it currently exits to the staging area: its blob
+     * is stored right away and the staging index records its blob id.
      * Staging an already-staged file overwrite the previous entry.
-     * In the worst case, should run in linear time relative to the size of the file
+     * A directory, such as ".", stands for every file below it. Files are hashed
+     * and stored in parallel, with the same outcome as adding them one by one.
+     * In the worst case, should run in linear time relative to the size of the files
      * being added and lgN, for N the number of files in the commit.
-     * @param fileName: The name of the file to be added for commit
+     * @param fileNames: The names of the files to be added for commit
      */
-    public static void stageCommit(String fileName) {
-        // Check if the file exists in the Current Working Directory
-        File file = Utils.join(CWD, fileName);
-        if (!file.exists()) {
-            throw Utils.error("File does not exist.");
+    public static void stageCommit(String... fileNames) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String fileName : fileNames) {
+            // Check if the file exists in the Current Working Directory
+            File file = Utils.join(CWD, fileName);
+            Path relative = CWD.toPath().relativize(file.toPath().normalize());
+            // A file outside the working directory, e.g. ../x, could never be checked out
+            if (!file.exists() || Paths.get(fileName).isAbsolute() || relative.startsWith("..")) {
+                throw Utils.error("File does not exist.");
+            }
+            String path = relative.toString().replace(FILE_SEPARATOR, "/");
+            if (file.isDirectory()) {
+                String prefix = path.isEmpty() ? "" : path + "/";
+                for (String below : plainFilePathsIn(file)) {
+                    names.add(prefix + below);
+                }
+            } else {
+                names.add(path);
+            }
         }
-        // create a blob: saved contents of the file.
-        byte[] bytes = readContents(file);
-        // Check if the file is staged for addition already
-        File stagedFile = Utils.join(STAGED_ADD_FOLDER, fileName);
-        File stagedRmFile = Utils.join(STAGED_RM_FOLDER, fileName);
+        TreeMap<String, String> trackedFiles = Commit.fromObject(getHeadCommitId()).getFileIndex();
+        Parallel.map(new ArrayList<>(names), fileName -> {
+            stageFile(fileName, trackedFiles);
+            return fileName;
+        });
+    }
 
-        if (checkIdenticalFileExists(fileName)) {
-            deleteIfExists(stagedRmFile);
-        } else {
-            writeContents(stagedFile, (Object) bytes);
+    /**
+     * Stages one file of the working directory for addition, unless it is identical
+     * to the tracked version, in which case it is unstaged instead.
+     * @param fileName: name of the file.
+     * @param trackedFiles: file index of the current commit.
+     */
+    private static void stageFile(String fileName, TreeMap<String, String> trackedFiles) {
+        // blob id of the saved contents of the file, rehashed only if it changed.
+        String blobId = StatCache.blobIdOf(fileName);
+        String trackedBlobId = trackedFiles.get(fileName);
+        // Case 1: identical to the version tracked by the current commit
+        if (blobId.equals(trackedBlobId)) {
+            StagingIndex.unstage(fileName);
+            return;
         }
+        // Case 2: staged for addition already with the same contents
+        if (blobId.equals(StagingIndex.stagedBlobId(fileName))) {
+            return;
+        }
+        // create a blob: saved contents of the file, unless the store has it already.
+        File file = join(CWD, fileName);
+        if (!ObjectStore.contains(ObjectStore.BLOB, blobId)) {
+            blobId = Commit.saveFileBlob(file, trackedBlobId);
+        }
+        StagingIndex.stageAddition(fileName, blobId, StagingIndex.modeOf(file));
     }
 
 
@@ -107,10 +147,7 @@ public class Repository {
         if (message == null || message.isEmpty()) {
             throw error("Please enter a commit message.");
         }
-        List<String> names = plainFilenamesIn(STAGED_ADD_FOLDER);
-        List<String> namesRm = plainFilenamesIn(STAGED_RM_FOLDER);
-
-        if ((names == null || names.isEmpty())  && (namesRm == null || namesRm.isEmpty())) {
+        if (StagingIndex.isEmpty()) {
             throw error("No changes added to the commit.");
         }
         // Get metadata info from parent commit: commitId, parent commit instance
@@ -118,9 +155,10 @@ public class Repository {
         String commitId = getHeadCommitId();
         Commit commit = Commit.fromObject(commitId);
 
-        // Create a new commit instance with metadata and file index map
+        // Create a new commit instance with metadata; its files are the parent's tree
+        // with the staged changes applied.
         Commit newCommitInstance =
-                new Commit(message, commitId, commit, secondParentId, commit.getFileIndex());
+                new Commit(message, commitId, commit, secondParentId, null);
 
         newCommitInstance.buildFileIndex();
         String newCommitId = newCommitInstance.saveCommit();
@@ -137,18 +175,17 @@ public class Repository {
         // Get the head commit to check is file is currently being tracked
         String commitId = getHeadCommitId();
         Commit commit = Commit.fromObject(commitId);
-        File file = join(STAGED_ADD_FOLDER, fileName);
+        boolean staged = StagingIndex.stagedBlobId(fileName) != null;
         /* Failure case: check if the file is neither staged nor tracked by the head commit*/
-        if (!(file.exists()) && commit.getFileIndex().get(fileName) == null) {
+        if (!staged && Tree.lookup(commit.getTreeId(), fileName) == null) {
             throw error("No reason to remove the file.");
             // Unstage the file check
-        } else if (file.exists()) {
-            deleteIfExists(file);
+        } else if (staged) {
+            StagingIndex.unstage(fileName);
             // If file is tracked in current commit, stage it for removal and remove it from CWD
         } else {
-            File stagedRmFile = join(STAGED_RM_FOLDER, fileName);
-            createNewFile(stagedRmFile);
-            restrictedDelete(fileName);
+            StagingIndex.stageRemoval(fileName);
+            deleteWorkingFile(fileName);
         }
     }
 
@@ -185,7 +222,7 @@ public class Repository {
             throw error("Cannot remove the current branch.");
         }
         // Delete the pointer, i.e. refs/heads/branchName path
-        deleteIfExists(file);
+        Journal.delete(file);
     }
 
     /**
@@ -203,7 +240,7 @@ public class Repository {
             }
             // Check if that branch is the current branch.
             String head = getBranchHead();
-            if (head.equals(file.getName())) {
+            if (head.equals(firstArg)) {
                 message("No need to checkout the current branch.");
             }
             // Takes all files in the commit at the given branch, and puts them in the CWD.
@@ -217,27 +254,27 @@ public class Repository {
             String commitId = getHeadCommitId();
             Commit commit = Commit.fromObject(commitId);
             // Failure case: File should exist in the previous commit.
-            Set<String> trackedFiles = commit.getFileIndex().keySet();
-            if (!trackedFiles.contains(fileName)) {
+            String blob = Tree.lookup(commit.getTreeId(), fileName);
+            if (blob == null) {
                 throw Utils.error("File does not exist in that commit.");
             }
-            String blob = commit.getFileIndex().get(fileName);
-            Commit.saveFileContents(fileName, Commit.readFileBlob(blob), CWD);
+            Commit.restoreFileBlob(fileName, blob, CWD);
         // Usage 2: checkout [commit id] -- [file name], puts it in CWD.
         } else if (args[2].equals("--")) {
             String fileName = args[3];
-            List<String> commitIds = findCommitIdsByPrefix(args[1], false);
-            if (commitIds.isEmpty()) {
-                throw error("No commit with that id exists.");
-            }
-            String commitId = commitIds.get(0);
+            String commitId = resolveCommitId(args[1]);
             File file = join(CWD, fileName);
             // Failure case: File should exist in the CWD.
             if (!file.exists()) {
                 throw Utils.error("File does not exist in that commit.");
             }
             Commit commit = Commit.fromObject(commitId);
-            checkOutFileFromCommit(fileName, commit.getFileIndex().get(fileName));
+            // Failure case: File should exist in the given commit.
+            String blob = Tree.lookup(commit.getTreeId(), fileName);
+            if (blob == null) {
+                throw Utils.error("File does not exist in that commit.");
+            }
+            checkOutFileFromCommit(fileName, blob);
         } else {
             throw error("Incorrect operands.");
         }
@@ -250,11 +287,8 @@ public class Repository {
      * Essentially `checkout` of an arbitrary commit that also changes current branch head.
      */
     public static void resetCommitHistory(String commitId) {
-        Commit commit = Commit.fromObject(commitId);
-        // Failure case 1: no commit with the given id exists.
-        if (commit == null) {
-            throw error("No commit with that id exists.");
-        }
+        // Failure case 1: no commit with the given (possibly abbreviated) id exists.
+        commitId = resolveCommitId(commitId);
         restoreCommitStatus(getHeadCommitId(), commitId);
         // Moves the current branch's head to that commit node
         String branch = getBranchHead();
@@ -271,38 +305,161 @@ public class Repository {
         displayCommitLog(commitId);
     }
 
+    /**
+     * Supporting command `gitlet log --follow [file name]`.
+     * Like `gitlet log`, but only displays the commits that changed the given file, and
+     * follows it back through renames: at the commit that added it, the file it was
+     * renamed or copied from, if any, is followed instead.
+     * @param fileName: name of a file of the head commit.
+     */
+    public static void followFileLog(String fileName) {
+        checkInitRepoStatus();
+        CommitGraph graph = CommitGraph.load();
+        int row = graph.indexOf(getHeadCommitId());
+        String path = fileName;
+        if (Tree.lookup(Commit.fromObject(graph.idAt(row)).getTreeId(), path) == null) {
+            throw error("File does not exist in that commit.");
+        }
+        while (row != CommitGraph.NONE && path != null) {
+            int parent = graph.firstParent(row);
+            String treeId = Commit.fromObject(graph.idAt(row)).getTreeId();
+            String parentTreeId = (parent == CommitGraph.NONE) ? null
+                    : Commit.fromObject(graph.idAt(parent)).getTreeId();
+            String blobId = Tree.lookup(treeId, path);
+            String parentBlobId = (parentTreeId == null) ? null : Tree.lookup(parentTreeId, path);
+            if (!Objects.equals(blobId, parentBlobId)) {
+                Renames.Match match = (parentBlobId == null && parentTreeId != null)
+                        ? commitRenames(parentTreeId, treeId).get(path) : null;
+                displayCommitEntry(graph, row, (match == null) ? null : match.describe());
+                path = (parentBlobId != null) ? path : (match == null) ? null : match.source;
+            }
+            row = parent;
+        }
+    }
+
+    /**
+     * Utility function to find where the files a commit added came from: the files it
+     * deleted, or the files it changed as they were in its parent.
+     * @param parentTreeId: root tree of the parent commit.
+     * @param treeId: root tree of the commit.
+     * @return the source of each added file that has one.
+     */
+    private static Map<String, Renames.Match> commitRenames(String parentTreeId, String treeId) {
+        Map<String, String> changes = new TreeMap<>();
+        Tree.diff(parentTreeId, treeId, "", changes);
+        Map<String, String> deleted = new TreeMap<>();
+        Map<String, String> added = new TreeMap<>();
+        Map<String, String> modified = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String before = Tree.lookup(parentTreeId, change.getKey());
+            if (change.getValue() == null) {
+                deleted.put(change.getKey(), before);
+            } else if (before == null) {
+                added.put(change.getKey(), change.getValue());
+            } else {
+                modified.put(change.getKey(), before);
+            }
+        }
+        return Renames.detect(deleted, added, modified,
+                fileName -> Commit.readFileBlob(added.get(fileName)));
+    }
+
     /**
      * Supporting command `gitlet global-log`.
      * Display information about all commits ever made. Order does not matter.
+     * Each commit is displayed once, in the order saved, from the commit log.
      */
     public static void checkCommitGlobalLog() {
-        List<String> objectIds = findCommitIdsByPrefix("", true);
-        for (String objectId : objectIds) {
-            displayCommitLog(objectId);
-        }
+        CommitLog.load().forEach((row, commitId, timestamp, msg) -> {
+            message("===");
+            message("commit %s", commitId);
+            message("Date: %s", Commit.formatDateTime(timestamp));
+            message("%s", msg);
+            message("");
+        });
     }
 
     /**
      * Supporting command `gitlet find [commit message]`.
      * Prints out the ids of all commits that have the given commit message.
      * If there are multiple such commits, it prints the ids out on separate lines.
+     * The message hash index of the commit log is consulted, not every commit.
      * @param commitMessage: user input single operand.
      */
     public static void findAllCommits(String commitMessage) {
-        boolean foundCommit = false;
-        List<String> objectIds = findCommitIdsByPrefix("", true);
-        for (String objectId : objectIds) {
-            Commit commit = Commit.fromObject(objectId);
-            if (commit != null) {
-                String msg = commit.getMessage();
-                if (msg.equals(commitMessage)) {
-                    message(objectId);
-                    foundCommit = true;
+        List<String> commitIds = CommitLog.load().find(commitMessage);
+        if (commitIds.isEmpty()) {
+            throw error("Found no commit with that message.");
+        }
+        for (String commitId : commitIds) {
+            message(commitId);
+        }
+    }
+
+    /**
+     * Supporting command `gitlet diff [commit id] [commit id]`.
+     * Prints the changes as a unified diff: with no commit id, from the head commit to
+     * the working files that are tracked or staged; with one, from that commit to them;
+     * with two, from the first commit to the second. Files whose blob ids are equal are
+     * skipped without reading them: equal subtrees of two commits are not even listed,
+     * and working files are hashed only if their stat data changed.
+     * @param commitIds: user input commit ids, none, one or two.
+     */
+    public static void diffFiles(String... commitIds) {
+        checkInitRepoStatus();
+        String fromId = (commitIds.length > 0) ? resolveCommitId(commitIds[0]) : getHeadCommitId();
+        Commit from = Commit.fromObject(fromId);
+        TreeMap<String, String> changes = new TreeMap<>();
+        boolean workingFiles = commitIds.length < 2;
+        if (workingFiles) {
+            Set<String> fileNames = new TreeSet<>(from.getFileIndex().keySet());
+            fileNames.addAll(StagingIndex.additions().keySet());
+            for (String fileName : fileNames) {
+                String blobId = StatCache.blobIdOf(fileName);
+                if (!Objects.equals(blobId, from.getFileIndex().get(fileName))) {
+                    changes.put(fileName, blobId);
                 }
             }
+        } else {
+            Commit to = Commit.fromObject(resolveCommitId(commitIds[1]));
+            Tree.diff(from.getTreeId(), to.getTreeId(), "", changes);
         }
-        if (!foundCommit) {
-            throw error("Found no commit with that message.");
+        try {
+            OutputStream out = new BufferedOutputStream(System.out, STREAM_BUFFER);
+            UnifiedDiff diff = new UnifiedDiff(out);
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                String fileName = change.getKey();
+                String before = workingFiles ? from.getFileIndex().get(fileName)
+                        : Tree.lookup(from.getTreeId(), fileName);
+                byte[] after = (change.getValue() == null) ? null
+                        : workingFiles ? readContents(join(CWD, fileName))
+                        : Commit.readFileBlob(change.getValue());
+                diff.write(fileName, (before == null) ? null : Commit.readFileBlob(before),
+                        after);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw error("Could not write the diff.", e);
+        }
+    }
+
+    /**
+     * Supporting command `gitlet search [word]...`.
+     * Prints out the ids of all commits whose message matches the words, most recent
+     * first. A message matches if it contains every word; words joined by OR need only
+     * one of them, and a word ending with * matches any word that starts with it.
+     * The inverted index of commit messages is consulted, not every commit.
+     * @param words: user input query words, e.g. fix OR repair merge*.
+     */
+    public static void searchCommits(String... words) {
+        checkInitRepoStatus();
+        List<String> commitIds =
+                SearchIndex.load().search(Arrays.asList(words), CommitLog.load());
+        if (commitIds.isEmpty()) {
+            throw error("Found no commit matching that search.");
+        }
+        for (String commitId : commitIds) {
+            message(commitId);
         }
     }
 
@@ -314,27 +471,95 @@ public class Repository {
     public static void checkCommitStatus() {
         checkInitRepoStatus();
         message("=== Branches ===");
-        List<String> branchList = plainFilenamesIn(REFS);
+        List<String> branchList = plainFilePathsIn(REFS);
         String currentBranch = getBranchHead();
         for (String branch : branchList) {
             message(branch.equals(currentBranch) ? "*%s" : "%s", branch);
         }
+        // With `gitlet config renames true`, new files that came from others say so.
+        boolean renames = Config.getBoolean("renames", false);
+        TreeMap<String, String> fileIndex = Commit.fromObject(getHeadCommitId()).getFileIndex();
         message(LINE_SEPARATOR + "=== Staged Files ===");
-        List<String> stagedAdd = checkStagingAreaStatus(STAGED_ADD_FOLDER);
+        SortedMap<String, String> additions = StagingIndex.additions();
+        List<String> stagedAdd = checkStagingAreaStatus(new ArrayList<>(additions.keySet()),
+                renames ? stagedRenames(fileIndex, additions) : Collections.emptyMap());
 
         message(LINE_SEPARATOR + "=== Removed Files ===");
-        List<String> stagedRm = checkStagingAreaStatus(STAGED_RM_FOLDER);
+        List<String> stagedRm = checkStagingAreaStatus(StagingIndex.removals(),
+                Collections.emptyMap());
 
         message(LINE_SEPARATOR + "=== Modifications Not Staged For Commit ===");
         List<String> untrackedFiles = checkUnstagedAndUnTrackedFiles(stagedAdd, stagedRm);
 
         message(LINE_SEPARATOR + "=== Untracked Files ===");
-        if (!untrackedFiles.isEmpty()) {
+        Collections.sort(untrackedFiles);
+        Map<String, Renames.Match> untrackedRenames = renames
+                ? untrackedRenames(fileIndex, untrackedFiles) : Collections.emptyMap();
+        for (String fileName : untrackedFiles) {
+            message(fileName + describeRename(untrackedRenames.get(fileName)));
+        }
+        message("");
+    }
+
+    /**
+     * Utility function to find where the files staged for addition came from: the
+     * files staged for removal, or the other staged files as they are in the head commit.
+     * @param fileIndex: files of the head commit.
+     * @param additions: files staged for addition, with their staged blob ids.
+     * @return the source of each new staged file that has one.
+     */
+    private static Map<String, Renames.Match> stagedRenames(Map<String, String> fileIndex,
+                                                            Map<String, String> additions) {
+        Map<String, String> deleted = new TreeMap<>();
+        for (String fileName : StagingIndex.removals()) {
+            deleted.put(fileName, fileIndex.get(fileName));
+        }
+        Map<String, String> added = new TreeMap<>();
+        Map<String, String> modified = new TreeMap<>();
+        for (Map.Entry<String, String> file : additions.entrySet()) {
+            if (fileIndex.containsKey(file.getKey())) {
+                modified.put(file.getKey(), fileIndex.get(file.getKey()));
+            } else {
+                added.put(file.getKey(), file.getValue());
+            }
+        }
+        return Renames.detect(deleted, added, modified,
+                fileName -> Commit.readFileBlob(added.get(fileName)));
+    }
+
+    /**
+     * Utility function to find where untracked files came from: the tracked files that
+     * were deleted from the working directory without being staged for removal.
+     * @param fileIndex: files of the head commit.
+     * @param untrackedFiles: names of the untracked files.
+     * @return the source of each untracked file that has one.
+     */
+    private static Map<String, Renames.Match> untrackedRenames(Map<String, String> fileIndex,
+                                                               List<String> untrackedFiles) {
+        Map<String, String> deleted = new TreeMap<>();
+        List<String> removals = StagingIndex.removals();
+        for (Map.Entry<String, String> file : fileIndex.entrySet()) {
+            if (!join(CWD, file.getKey()).exists() && !removals.contains(file.getKey())) {
+                deleted.put(file.getKey(), file.getValue());
+            }
+        }
+        Map<String, String> added = new TreeMap<>();
+        if (!deleted.isEmpty()) {
             for (String fileName : untrackedFiles) {
-                message(fileName);
+                added.put(fileName, StatCache.blobIdOf(fileName));
             }
         }
-        message("");
+        return Renames.detect(deleted, added, Collections.emptyMap(),
+                fileName -> readContents(join(CWD, fileName)));
+    }
+
+    /**
+     * Utility function to describe a rename or copy after a file name.
+     * @param match: where the file came from, or null.
+     * @return " (renamed from [file name])" and the like, or "" if MATCH is null.
+     */
+    private static String describeRename(Renames.Match match) {
+        return (match == null) ? "" : " (" + match.describe() + ")";
     }
 
     /**
@@ -344,15 +569,120 @@ public class Repository {
      * @return: sha1 (blob) id of the file.
      */
     public static String serializeFileContents(String fileName, File path) {
+        if (path.equals(CWD)) {
+            return StatCache.blobIdOf(fileName);
+        }
         File file = join(path, fileName);
         try {
-            byte[] bytes = readContents(file);
-            return sha1((Object) bytes);
+            return sha1(file);
         } catch (IllegalArgumentException excp) {
             return null;
         }
     }
 
+    /**
+     * Supporting command `gitlet gc`.
+     * Moves all loose blobs and commits into the pack, so that a repository with
+     * many objects uses two files instead of one file per object. Also stores the
+     * reachability bitmap of each branch tip, for later ancestry checks.
+     */
+    public static void packObjects() {
+        checkInitRepoStatus();
+        ObjectStore.repack();
+        // Store the reachability bitmap of every branch tip that lacks one.
+        CommitGraph graph = CommitGraph.load();
+        for (String branch : plainFilePathsIn(REFS)) {
+            Reachability.load().reachable(graph.indexOf(getBranchReference(branch)), true);
+        }
+    }
+
+    /**
+     * Supporting command `gitlet config [key] [value]`.
+     * Prints the value of a repository setting, or sets it when a value is given.
+     * @param key: name of the setting, e.g. delta.depth.
+     * @param value: new value of the setting, null to print the current one.
+     */
+    public static void configureRepository(String key, String value) {
+        checkInitRepoStatus();
+        if (value == null) {
+            message(Config.get(key, ""));
+        } else {
+            Config.set(key, value);
+        }
+    }
+
+    /**
+     * Supporting command `gitlet stats`.
+     * Reports how blobs are stored and how much space deltas and compression save,
+     * to help tune the `delta.depth` and `compression` settings.
+     */
+    public static void displayObjectStats() {
+        checkInitRepoStatus();
+        long fullCount = 0;
+        long deltaCount = 0;
+        long contentBytes = 0;
+        long encodedBytes = 0;
+        long storedBytes = 0;
+        int longestChain = 0;
+        for (String blobId : ObjectStore.idsWithPrefix(ObjectStore.BLOB, "")) {
+            int size = ObjectStore.readStored(ObjectStore.BLOB, blobId).length;
+            fullCount += 1;
+            contentBytes += size;
+            encodedBytes += size;
+            storedBytes += ObjectStore.storedSize(ObjectStore.BLOB, blobId);
+        }
+        for (String blobId : ObjectStore.idsWithPrefix(ObjectStore.DELTA, "")) {
+            byte[] delta = ObjectStore.readStored(ObjectStore.DELTA, blobId);
+            deltaCount += 1;
+            contentBytes += Delta.resultLength(delta);
+            encodedBytes += delta.length;
+            storedBytes += ObjectStore.storedSize(ObjectStore.DELTA, blobId);
+            longestChain = Math.max(longestChain, Delta.depth(delta));
+        }
+        long chunkedCount = 0;
+        long chunkedBytes = 0;
+        long distinctChunkBytes = 0;
+        Set<String> chunks = new HashSet<>();
+        for (String blobId : ObjectStore.idsWithPrefix(ObjectStore.MANIFEST, "")) {
+            byte[] manifest = ObjectStore.readStored(ObjectStore.MANIFEST, blobId);
+            List<String> chunkIds = Chunker.chunkIds(manifest);
+            chunkedCount += 1;
+            for (int k = 0; k < chunkIds.size(); k += 1) {
+                int length = Chunker.chunkLength(manifest, k);
+                chunkedBytes += length;
+                if (chunks.add(chunkIds.get(k))) {
+                    distinctChunkBytes += length;
+                }
+            }
+            storedBytes += ObjectStore.storedSize(ObjectStore.MANIFEST, blobId);
+        }
+        message("blobs: %d stored in full, %d stored as deltas, %d stored as chunks",
+                fullCount, deltaCount, chunkedCount);
+        message("content size: %d bytes", contentBytes);
+        message("stored size: %d bytes", storedBytes);
+        message("saved by deltas: %s", percentOf(contentBytes - encodedBytes, contentBytes));
+        message("saved by compression: %s", percentOf(encodedBytes - storedBytes, contentBytes));
+        message("longest delta chain: %d (delta.depth = %d)", longestChain,
+                Config.getInt("delta.depth", 0));
+        if (chunkedCount > 0) {
+            message("chunked content: %d bytes in %d distinct chunks of %d bytes", chunkedBytes,
+                    chunks.size(), distinctChunkBytes);
+            message("chunk dedup ratio: %.2f (chunk.threshold = %d)",
+                    (double) chunkedBytes / distinctChunkBytes, Config.getInt("chunk.threshold", 0));
+        }
+    }
+
+    /**
+     * Utility function to format a byte count together with its share of a total.
+     * @param bytes: number of bytes.
+     * @param total: total number of bytes.
+     * @return: the count followed by its percentage of the total.
+     */
+    private static String percentOf(long bytes, long total) {
+        return String.format("%d bytes (%.1f%%)", bytes,
+                (total == 0) ? 0.0 : 100.0 * bytes / total);
+    }
+
     /**
      * Supporting command `gitlet merge [branch name]`.
      * Merge files from the given branch into the current branch.
@@ -372,65 +702,130 @@ public class Repository {
         }
         TreeMap<String, String> currFiles = Commit.fromObject(currentHead).getFileIndex();
         TreeMap<String, String> givenFiles = Commit.fromObject(givenHead).getFileIndex();
-        if (checkUntrackedFileExists(currFiles)) {
+        // Both heads are branch tips, whose reachability bitmaps answer ancestry.
+        CommitGraph graph = CommitGraph.load();
+        Reachability reachability = Reachability.load();
+        int currentRow = graph.indexOf(currentHead);
+        int givenRow = graph.indexOf(givenHead);
+        boolean givenIsAncestor = reachability.isAncestor(givenRow, currentRow);
+        boolean fastForward = !givenIsAncestor && reachability.isAncestor(currentRow, givenRow);
+        String lca = givenIsAncestor ? givenHead
+                : fastForward ? currentHead : lowestCommonAncestor(currentHead, givenHead);
+        TreeMap<String, String> splitPointFiles = Commit.fromObject(lca).getFileIndex();
+        if (checkUntrackedFileExists(currFiles, givenFiles, splitPointFiles)) {
             throw error("There is an untracked file in the way;"
                     + " delete it, or add and commit it first.");
         }
-        String lca = lowestCommonAncestor(currentHead, givenHead);
-        if (lca.equals(givenHead)) {
+        if (givenIsAncestor) {
             message("Given branch is an ancestor of the current branch.");
             return;
-        } else if (lca.equals(currentHead)) {
-            checkOutCommit("checkout", branch);
+        } else if (fastForward) {
+            // Move the current branch up to the given head, rewriting only changed files.
+            restoreCommitStatus(currentHead, givenHead);
+            setBranchReference(getBranchHead(), givenHead);
             message("Current branch fast-forwarded.");
             return;
         }
-        TreeMap<String, String> splitPointFiles = Commit.fromObject(lca).getFileIndex();
-        Set<String> notASet = Stream.concat(givenFiles.keySet().stream(),
-                        currFiles.keySet().stream()).
-                filter(k -> !splitPointFiles.containsKey(k)).collect(Collectors.toSet());
-        for (String fileName : splitPointFiles.keySet()) {
+        // With `gitlet config renames true`, a file renamed on one side since the split
+        // point is merged with the same file on the other side, under its new name.
+        Map<String, String> currPaths = new HashMap<>();
+        Map<String, String> givenPaths = new HashMap<>();
+        if (Config.getBoolean("renames", false)) {
+            findRenamesSince(splitPointFiles, currFiles, currPaths);
+            findRenamesSince(splitPointFiles, givenFiles, givenPaths);
+            // renamed differently on both sides: both new names are kept as added files
+            Set<String> renamedApart = new HashSet<>(currPaths.keySet());
+            renamedApart.removeIf(name -> currPaths.get(name).equals(
+                    givenPaths.getOrDefault(name, currPaths.get(name))));
+            currPaths.keySet().removeAll(renamedApart);
+            givenPaths.keySet().removeAll(renamedApart);
+        }
+        Set<String> fileNames = new TreeSet<>(splitPointFiles.keySet());
+        fileNames.addAll(currFiles.keySet());
+        fileNames.addAll(givenFiles.keySet());
+        fileNames.removeAll(currPaths.values());
+        fileNames.removeAll(givenPaths.values());
+        boolean conflict = false;
+        for (String fileName : fileNames) {
+            String currPath = currPaths.getOrDefault(fileName, fileName);
+            String target = currPaths.containsKey(fileName) ? currPath
+                    : givenPaths.getOrDefault(fileName, fileName);
+            boolean moved = !target.equals(currPath) && currFiles.containsKey(currPath);
             String aVersion = splitPointFiles.get(fileName);
-            String bVersion = currFiles.get(fileName);
-            String cVersion = givenFiles.get(fileName);
-            if ((bVersion == null && aVersion.equals(cVersion))) {
-                deleteIfExists(join(CWD, fileName));  // remain absent, Case 7: A = C && not B
-            } else if (cVersion == null && aVersion.equals(bVersion)) {
-                deleteIfExists(join(CWD, fileName)); // Case 6: A = B && not C
-                unstageFiles(fileName);
-            } else if (aVersion.equals(bVersion) && !aVersion.equals(cVersion)) {
-                checkOutFileFromCommit(fileName, cVersion); // Case 1: A = B != C
-                Commit.saveFileContents(fileName, Commit.readFileBlob(cVersion), STAGED_RM_FOLDER);
-            } else if (aVersion.equals(cVersion) && !aVersion.equals(bVersion)) {
-                continue; // stay as they are // Case 2: A = C != B
-            } else if (!aVersion.equals(bVersion) && Objects.equals(bVersion, cVersion)) {
-                deleteIfExists(join(CWD, fileName)); // left unchanged // Case 3: A != B = C
+            String bVersion = currFiles.get(currPath);
+            String cVersion = givenFiles.get(givenPaths.getOrDefault(fileName, fileName));
+            if (Objects.equals(bVersion, cVersion) || Objects.equals(aVersion, cVersion)) {
+                // stay as they are // Cases 2, 3, 4, 7: C = A or C = B
+                if (moved) {
+                    checkOutFileFromCommit(target, bVersion);
+                    StagingIndex.stageAddition(target, bVersion, StagingIndex.REGULAR);
+                }
+            } else if (Objects.equals(aVersion, bVersion) && cVersion == null) {
+                unstageFiles(currPath); // Case 6: A = B && not C
+            } else if (Objects.equals(aVersion, bVersion)) {
+                checkOutFileFromCommit(target, cVersion); // Cases 1, 5: A = B != C
+                StagingIndex.stageAddition(target, cVersion, StagingIndex.REGULAR);
             } else {
-                message("Encountered a merge conflict."); // Case 8: A != B != C
-                String mergedContent = "<<<<<<< HEAD"
-                        + LINE_SEPARATOR
-                        + Commit.readFileBlob(bVersion)
-                        + "======="
-                        + LINE_SEPARATOR
-                        + Commit.readFileBlob(cVersion)
-                        + ">>>>>>>"
-                        + LINE_SEPARATOR;
-                Commit.saveFileContents(fileName, mergedContent, STAGED_ADD_FOLDER);
-                Commit.saveFileContents(fileName, mergedContent, CWD);
+                // Case 8: A != B != C, merged line by line
+                conflict |= mergeFileContents(target, aVersion, bVersion, cVersion);
             }
-        }
-        for (String name : notASet) {
-            String b = currFiles.get(name);
-            String c = givenFiles.get(name);
-            if (b != null && c == null) {
-                continue; // remain as they are // Case 4: !A && B && !C
-            } else if (b == null && c != null) { // Case 5: !A && !B && C
-                checkOutFileFromCommit(name, c);
-                Commit.saveFileContents(name, Commit.readFileBlob(c), STAGED_ADD_FOLDER);
+            if (moved) {
+                unstageFiles(currPath); // renamed in the given branch
             }
         }
         String message = String.format("Merged %s into %s.", branch, getBranchHead());
         createCommit(message, givenHead);
+        if (conflict) {
+            message("Encountered a merge conflict.");
+        }
+    }
+
+    /**
+     * Utility function to find the files of one side of a merge that were renamed since
+     * the split point; copies are left as added files.
+     * @param splitPointFiles: files of the split point.
+     * @param files: files of the side.
+     * @param paths: map that the new path of each renamed file is added to, by old path.
+     */
+    private static void findRenamesSince(Map<String, String> splitPointFiles,
+                                         Map<String, String> files, Map<String, String> paths) {
+        Map<String, String> deleted = new TreeMap<>(splitPointFiles);
+        deleted.keySet().removeAll(files.keySet());
+        Map<String, String> added = new TreeMap<>(files);
+        added.keySet().removeAll(splitPointFiles.keySet());
+        Map<String, Renames.Match> matches = Renames.detect(deleted, added,
+                Collections.emptyMap(), fileName -> Commit.readFileBlob(added.get(fileName)));
+        for (Map.Entry<String, Renames.Match> match : matches.entrySet()) {
+            if (!match.getValue().copy) {
+                paths.put(match.getValue().source, match.getKey());
+            }
+        }
+    }
+
+    /**
+     * Utility function to merge the changes both branches made to a file, line by line,
+     * into the working file, and stage the result.
+     * @param fileName: name of the file.
+     * @param aVersion: blobId at the split point, null if absent.
+     * @param bVersion: blobId in the current branch, null if absent.
+     * @param cVersion: blobId in the given branch, null if absent.
+     * @return true iff some changes overlapped and were left as conflict markers.
+     */
+    private static boolean mergeFileContents(String fileName, String aVersion,
+                                             String bVersion, String cVersion) {
+        File merged = join(CWD, fileName);
+        merged.getParentFile().mkdirs();
+        boolean conflict;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(merged),
+                STREAM_BUFFER)) {
+            conflict = LineMerge.merge(Commit.readFileBlob(aVersion),
+                    Commit.readFileBlob(bVersion), Commit.readFileBlob(cVersion), out);
+        } catch (IOException e) {
+            throw error("Could not write file " + merged.toPath(), e);
+        }
+        StagingIndex.stageAddition(fileName, Commit.saveFileBlob(merged, bVersion),
+                StagingIndex.modeOf(merged));
+        return conflict;
     }
 
     /**
@@ -441,39 +836,93 @@ public class Repository {
      * @param remoteDir: folder name of the remote branch
      */
     public static void addRemoteCommit(String remoteName,  String remoteDir) {
+        checkInitRepoStatus();
+        File remoteFile = join(REMOTES, remoteName);
+        if (Journal.readString(remoteFile) != null) {
+            throw error("A remote with that name already exists.");
+        }
+        Journal.write(remoteFile, remoteDir.replace("/", FILE_SEPARATOR));
+    }
 
+    /**
+     * Supporting command `gitlet rm-remote [remote name]`.
+     * Removes the login information of the given remote name.
+     * @param remoteName: name of remote branch
+     */
+    public static void removeRemoteBranch(String remoteName) {
+        checkInitRepoStatus();
+        File remoteFile = join(REMOTES, remoteName);
+        if (Journal.readString(remoteFile) == null) {
+            throw error("A remote with that name does not exist.");
+        }
+        Journal.delete(remoteFile);
     }
 
     /**
      * Supporting command `gitlet fetch [remote name] [remote branch name]`.
      * Brings down commits from the remote Gitlet repo into local Gitlet repo.
-     * Copies all commits and blobs from the given branch in the repo into a local branch.
-     * Changing remote branch to point to the head commit.
+     * Copies the commits of the given branch that this repo lacks, with their trees
+     * and blobs, and points the local branch [remote name]/[remote branch name] at
+     * the head commit.
      * @param remoteName: name of remote branch
      * @param remoteBranch: remote branch name
      */
     public static void fetchRemoteCommit(String remoteName, String remoteBranch) {
-        File remoteGitlet = join(CWD, remoteName, ".gitlet");
-        File remoteBranchFile = join(CWD, remoteName, ".gitlet", "refs/heads/" + remoteBranch);
-        if (!remoteGitlet.exists()) {
-            throw error("Remote directory not found.");
-        } else if (!remoteBranchFile.exists()) {
-            throw error("That remote does not have that branch.");
-        }
-        List<String> remoteObjects = plainFilenamesIn(join(CWD,remoteName,
-                ".gitlet", "objects"));
-
-
+        checkInitRepoStatus();
+        String head = Remote.fetch(remoteGitletDir(remoteName), remoteBranch);
+        setBranchReference(remoteName + "/" + remoteBranch, head);
     }
 
-    private static void copyRecursively(File source, File destination) {
+    /**
+     * Supporting command `gitlet pull [remote name] [remote branch name]`.
+     * Fetches the branch as `gitlet fetch` does, then merges it into the current branch.
+     * @param remoteName: name of remote branch
+     * @param remoteBranch: remote branch name
+     */
+    public static void pullRemoteBranch(String remoteName, String remoteBranch) {
+        fetchRemoteCommit(remoteName, remoteBranch);
+        mergeBranch(remoteName + "/" + remoteBranch);
+    }
 
+    /**
+     * Supporting command `gitlet push [remote name] [remote branch name]`.
+     * Copies the commits of the current branch that the remote repo lacks, and
+     * fast-forwards the remote branch to the current head. The remote branch head
+     * must be in the history of the current head.
+     * @param remoteName: name of remote branch
+     * @param remoteBranch: remote branch name
+     */
+    public static void pushRemoteCommits(String remoteName, String remoteBranch) {
+        checkInitRepoStatus();
+        Remote.push(remoteGitletDir(remoteName), remoteBranch, getHeadCommitId());
     }
 
+    /**
+     * Utility function to find the .gitlet directory saved under a remote name,
+     * relative to the working directory unless it is an absolute path.
+     * @param remoteName: name of remote branch
+     * @return the .gitlet directory of the remote repo.
+     */
+    private static File remoteGitletDir(String remoteName) {
+        String remoteDir = Journal.readString(join(REMOTES, remoteName));
+        if (remoteDir == null) {
+            throw error("A remote with that name does not exist.");
+        }
+        File remoteGitlet = new File(remoteDir);
+        if (!remoteGitlet.isAbsolute()) {
+            remoteGitlet = join(CWD, remoteDir);
+        }
+        if (!remoteGitlet.isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        return remoteGitlet;
+    }
 
     /**
-     * Utility function to use Breadth-First-Search algorithm to find the latest
-     * common ancestor of two commit ids, i.e. the split point of the commits.
+     * Utility function to find the latest common ancestor of two commit ids,
+     * i.e. the split point of the commits, with the generation-pruned MergeBase
+     * search over the CommitGraph. In a criss-cross history with several merge
+     * bases, the most recent one is used as the split point.
      * @param commitIdA: commitId of current branch.
      * @param commitIdB: commitId of the given branch.
      * @return: the latest common ancestor of two commits where split happens.
@@ -482,67 +931,11 @@ public class Repository {
         // Returns a single LCA. Null only if graph is disconnected.
         if (commitIdA == null || commitIdB == null) {
             return null;
-        } else if (commitIdA.equals(commitIdB)) {
-            return commitIdA;
-        }
-        // 1) Distances from node A upward (BFS)
-        Map<String, Integer> distA = distToCommitId(commitIdA);
-        if (distA.containsKey(commitIdB)) {
-            return commitIdB; // node 2 is ancestor of node 1
-        }
-        // 2) BFS from B upward, keep best candidate
-        Map<String, Integer> distB = new HashMap<>();
-        distB.put(commitIdB, 0);
-        ArrayDeque<String> queue = new ArrayDeque<>();
-        queue.add(commitIdB);
-        String lca = null;
-        Integer minDist = Integer.MAX_VALUE;
-        while (!queue.isEmpty()) {
-            String x = queue.removeLast();
-            Integer db =  distB.get(x);
-            if (db > minDist) {
-                break;
-            }
-            Integer da =  distA.get(x);
-            if (da != null) {
-                int dist = Math.max(db, da);
-                if (dist < minDist) {
-                    minDist = dist;
-                    lca = x;
-                    if (dist == db) { // early return for max-score metric
-                        return lca;
-                    }
-                }
-            }
-            for (String parent: Commit.fromObject(x).getParentId()) {
-                if (distB.putIfAbsent(parent, db + 1) == null) {
-                    queue.add(parent);
-                }
-            }
         }
-        return lca;
-    }
-
-    /**
-     * Utility function to build a distance hashmap: key-commitId, value-distance to node.
-     * @param id: anchor commitId from which its distance to others are calculated.
-     * @return: A hashmap that shows the distance from the anchor commitId to other nodes.
-     */
-    private static Map<String, Integer> distToCommitId(String id) {
-        Map<String, Integer> distMap = new HashMap<>();
-        distMap.put(id, 0);
-        ArrayDeque<String> queue = new ArrayDeque<>();
-        queue.add(id);
-        while (!queue.isEmpty()) {
-            String x = queue.removeLast();
-            Integer dx = distMap.get(x);
-            for (String parent: Commit.fromObject(x).getParentId()) {
-                if (distMap.putIfAbsent(parent, dx + 1) == null) {
-                    queue.addFirst(parent);  // if this node not seen before, traverse it.
-                }
-            }
-        }
-        return distMap;
+        CommitGraph graph = CommitGraph.load();
+        List<Integer> bases = MergeBase.find(graph,
+                graph.indexOf(commitIdA), graph.indexOf(commitIdB));
+        return bases.isEmpty() ? null : graph.idAt(bases.get(0));
     }
 
     /**
@@ -552,8 +945,7 @@ public class Repository {
      */
     public static void setBranchReference(String branch, String commitId) {
         File branchFile = Utils.join(REFS, branch);
-        createNewFile(branchFile);
-        writeContents(branchFile, commitId);
+        Journal.write(branchFile, commitId);
     }
 
     /**
@@ -563,7 +955,7 @@ public class Repository {
      */
     public static void setHeadReference(String branch) {
         File headFile = Utils.join(HEAD);
-        writeContents(headFile, "refs/heads/", branch);
+        Journal.write(headFile, "refs/heads/" + branch);
     }
 
     /**
@@ -572,7 +964,11 @@ public class Repository {
      */
     public static String getHeadReference() {
         File headFile = Utils.join(HEAD);
-        return readContentsAsString(headFile);
+        String headRef = Journal.readString(headFile);
+        if (headRef == null) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        return headRef;
     }
 
     /**
@@ -581,7 +977,7 @@ public class Repository {
      */
     private static String getBranchHead() {
         String headRef = getHeadReference();
-        return  headRef.substring(headRef.lastIndexOf("/") + 1);
+        return headRef.substring("refs/heads/".length());
     }
 
     /***
@@ -599,14 +995,7 @@ public class Repository {
      * @return String: commitId.
      */
     public static String getBranchReference(String branch) {
-        String commitId;
-        try {
-            File branchFile = Utils.join(REFS, branch);
-            commitId = readContentsAsString(branchFile);
-        } catch (IllegalArgumentException e) {
-            commitId = null;
-        }
-        return commitId;
+        return Journal.readString(Utils.join(REFS, branch));
     }
 
     /**
@@ -622,97 +1011,113 @@ public class Repository {
     }
 
     /**
-     * Utility function to iteratively delete all files in staging area.
-     * @param stagingFolder: folder path for staging area: Add or Remove.
+     * Utility function to iteratively delete all files below a folder, keeping
+     * the folder itself.
+     * @param stagingFolder: folder path for a staging area of an older repository.
      */
-    public static void clearStagingArea(File stagingFolder) {
-        List<String> files = plainFilenamesIn(stagingFolder);
+    static void deleteFilesIn(File stagingFolder) {
+        List<String> files = plainFilePathsIn(stagingFolder);
         if (files != null && !files.isEmpty()) {
             for (String fileName: files) {
                 File file = join(stagingFolder, fileName);
                 deleteIfExists(file);
+                deleteEmptyParents(file, stagingFolder);
             }
         }
     }
 
+    /**
+     * Utility function to delete a file of the working directory, together with
+     * the directories that it leaves empty.
+     * @param fileName: path of the file below the working directory.
+     */
+    private static void deleteWorkingFile(String fileName) {
+        File file = join(CWD, fileName);
+        deleteIfExists(file);
+        deleteEmptyParents(file, CWD);
+    }
+
+    /**
+     * Utility function to delete the empty directories that contain a file,
+     * innermost first, up to but not including a given directory.
+     * @param file: file whose directories are to be deleted if empty.
+     * @param top: directory containing FILE that is never deleted.
+     */
+    private static void deleteEmptyParents(File file, File top) {
+        File dir = file.getParentFile();
+        while (dir != null && !dir.equals(top)) {
+            String[] contents = dir.list();
+            if (contents == null || contents.length > 0 || !dir.delete()) {
+                return;
+            }
+            dir = dir.getParentFile();
+        }
+    }
+
     /**
      * Utility function to travel back in time to restore Repository file system exactly
-     * at the time the given commitId was created.
+     * at the time the given commitId was created. Only files whose blob ids differ
+     * between the two commits are deleted or rewritten, along with the working
+     * files that no longer match the checked-out commit; no other file is read.
      * @param currentCommitId: current commitId.
      * @param checkedCommitId: checked-out commitId.
      */
     private static void restoreCommitStatus(String currentCommitId, String checkedCommitId) {
         Commit currentCommit = Commit.fromObject(currentCommitId);
         Commit checkedCommit = Commit.fromObject(checkedCommitId);
-        Set<String> currentTrackedFiles = currentCommit.getFileIndex().keySet();
-        Set<String> checkedTrackedFiles = checkedCommit.getFileIndex().keySet();
-        List<String> currentFiles = plainFilenamesIn(CWD);
+        String currentTree = currentCommit.getTreeId();
+        // Files that differ between the two commits, found by comparing their trees
+        // without descending into subtrees that are the same in both.
+        TreeMap<String, String> changes = new TreeMap<>();
+        Tree.diff(currentTree, checkedCommit.getTreeId(), "", changes);
         // Failure case: If a working file is untracked in the current branch and
         // would be overwritten by the checkout, exit.
-        if (currentFiles != null && !currentFiles.isEmpty()) {
-            for (String fileName : currentFiles) {
-                if (!currentTrackedFiles.contains(fileName)
-                        && checkedTrackedFiles.contains(fileName)) {
-                    throw error("There is an untracked file in the way;"
-                            + "delete it, or add and commit it first.");
-                }
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() != null && join(CWD, change.getKey()).isFile()
+                    && Tree.lookup(currentTree, change.getKey()) == null) {
+                throw error("There is an untracked file in the way;"
+                        + "delete it, or add and commit it first.");
             }
         }
         // Remove any files that are tracked in the current branch
         // but are not present in the checked-out branch.
-        for (String fileName : currentTrackedFiles) {
-            if (!checkedTrackedFiles.contains(fileName)) {
-                File file = join(CWD, fileName);
-                restrictedDelete(file);
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                deleteWorkingFile(change.getKey());
+            }
+        }
+        // Restore unchanged files only if they were modified or deleted in the
+        // working directory. Every file of the checked-out commit is compared,
+        // but only those whose stat data differ from their stat cache entry
+        // are read and hashed.
+        for (Map.Entry<String, String> file : checkedCommit.getFileIndex().entrySet()) {
+            if (!changes.containsKey(file.getKey())
+                    && !file.getValue().equals(StatCache.blobIdOf(file.getKey()))) {
+                changes.put(file.getKey(), file.getValue());
             }
         }
-        // Create files being tracked
-        for (String name : checkedTrackedFiles) {
-            String blobId = checkedCommit.getFileIndex().get(name);
-            Commit.saveFileContents(name, Commit.readFileBlob(blobId), CWD);
+        // Create files that differ between the two commits, or from the working files
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                Commit.restoreFileBlob(change.getKey(), change.getValue(), CWD);
+                StatCache.written(change.getKey(), change.getValue());
+            }
         }
         // Staging Add/Remove area is cleared.
-        clearStagingArea(STAGED_ADD_FOLDER);
-        clearStagingArea(STAGED_RM_FOLDER);
-    }
-
-    /**
-     * Check if identical file exists in staging area to be added.
-     * @param fileName: name of the file
-     * @return: Boolean True exists / False not exists.
-     */
-    private static Boolean checkIdenticalFileExists(String fileName) {
-        File file = Utils.join(CWD, fileName);
-        // create a blob: saved contents of the file.
-        byte[] bytes = readContents(file);
-        String blobId = sha1((Object) bytes);
-        File stagedFile = Utils.join(STAGED_ADD_FOLDER, fileName);
-
-        String commitId = getHeadCommitId();
-        Commit commit = Commit.fromObject(commitId);
-        // Case 1: Check if the file is tracked by current commit
-        if (commit.getFileIndex().containsKey(fileName)) {
-            String commitBlobId = commit.getFileIndex().get(fileName);
-            return commitBlobId.equals(blobId);
-        // Case 2: Check if the file is staged for addition already
-        } else if (stagedFile.exists()) {
-            byte[] stagedBytes = readContents(stagedFile);
-            String stagedBlob = sha1((Object) stagedBytes);
-            return blobId.equals(stagedBlob);
-        }
-        // Case 3: neither above, return false.
-        return false;
+        StagingIndex.clear();
     }
 
     /**
      * Utility function to check the files status: staged for add/removal
-     * @param stagingArea: name of the staging area to be checked
+     * @param stagedFileList: sorted paths staged for addition or for removal.
+     * @param renames: where each of them came from, if known.
+     * @return: the same paths, or null if there are none.
      */
-    private static List<String> checkStagingAreaStatus(File stagingArea) {
-        List<String> stagedFileList = plainFilenamesIn(stagingArea);
-        if (stagedFileList != null && !stagedFileList.isEmpty()) {
+    private static List<String> checkStagingAreaStatus(List<String> stagedFileList,
+                                                       Map<String, Renames.Match> renames) {
+        if (!stagedFileList.isEmpty()) {
             for (String fileName : stagedFileList) {
-                message("%s", fileName);
+                message("%s", fileName + describeRename(renames.get(fileName)));
             }
             return stagedFileList;
         }
@@ -728,13 +1133,16 @@ public class Repository {
      */
     private static List<String> checkUnstagedAndUnTrackedFiles(List<String> stagedAdd,
                                                                List<String> stagedRm) {
-        List<String> currFiles = plainFilenamesIn(CWD);
+        List<String> currFiles = WorkTree.files();
+        if (currFiles != null) {
+            StatCache.retainAll(currFiles);
+        }
         TreeMap<String, String> fileIndex = Commit.fromObject(getHeadCommitId()).getFileIndex();
         Set<String> trackedFiles = fileIndex.keySet();
         if (currFiles != null && !currFiles.isEmpty()) {
             for (String fileName : currFiles) {
                 String cwdVersion = serializeFileContents(fileName, CWD);
-                String stagedVersion = serializeFileContents(fileName, STAGED_ADD_FOLDER);
+                String stagedVersion = StagingIndex.stagedBlobId(fileName);
                 String trackedVersion = fileIndex.get(fileName);
                 boolean notStaged = stagedVersion == null
                         || (stagedAdd != null && !stagedAdd.contains(fileName));
@@ -768,26 +1176,23 @@ public class Repository {
      * @param prefix: user-input commitId argument
      * @param wildcard: indicator variable to show if doing search all files (wild card)
      *                or only search for a specific prefix
-     * @return: full commitId if exists, otherwise the original commit id input.
+     * @return: sorted full commitIds starting with the prefix, empty if none exists.
      */
     private static List<String> findCommitIdsByPrefix(String prefix, Boolean wildcard) {
-        File[] commitList = join(Commit.OBJECT_FOLDER, "commits").listFiles();
-        List<String> objectIdList = new ArrayList<>();
-        assert commitList != null;
-        for (File object : commitList) {
-            String folderName = object.getName();
-            if (wildcard || folderName.startsWith(prefix.substring(0, 2))) {
-                List<String> objectIds = plainFilenamesIn(object);
-                if (objectIds != null) {
-                    for (String objectId : objectIds) {
-                        if (wildcard || (folderName + objectId).startsWith(prefix)) {
-                            objectIdList.add(folderName + objectId);
-                        }
-                    }
-                }
-            }
+        return ObjectStore.idsWithPrefix(ObjectStore.COMMIT, wildcard ? "" : prefix);
+    }
+
+    /**
+     * Utility function to resolve a user-input (shortened) commitId to the full commitId.
+     * @param prefix: user-input commitId argument, at most UID_LENGTH digits.
+     * @return: the first full commitId starting with the prefix.
+     */
+    private static String resolveCommitId(String prefix) {
+        List<String> commitIds = findCommitIdsByPrefix(prefix, false);
+        if (commitIds.isEmpty()) {
+            throw error("No commit with that id exists.");
         }
-        return objectIdList;
+        return commitIds.get(0);
     }
 
     /**
@@ -795,22 +1200,32 @@ public class Repository {
      * @param commitId: commitId ever exists.
      */
     private static void displayCommitLog(String commitId) {
-        while (commitId != null) {
-            Commit commit = Commit.fromObject(commitId);
-            if (commit != null) {
-                message("===");
-                message("commit %s", commitId);
-                message("Date: %s", commit.getDateTime());
-                message("%s", commit.getMessage());
-                message("");
-                List<String> parentIds = commit.getParentId();
-                commitId = (parentIds.isEmpty()) ? null : parentIds.get(0);
-            } else {
-                return;
-            }
+        CommitGraph graph = CommitGraph.load();
+        int row = graph.indexOf(commitId);
+        while (row != CommitGraph.NONE) {
+            displayCommitEntry(graph, row, null);
+            row = graph.firstParent(row);
         }
     }
 
+    /**
+     * Utility function that displays the information of one commit.
+     * @param graph: the commit graph.
+     * @param row: row of the commit in the graph.
+     * @param note: line displayed after the message, or null for none.
+     */
+    private static void displayCommitEntry(CommitGraph graph, int row, String note) {
+        String id = graph.idAt(row);
+        message("===");
+        message("commit %s", id);
+        message("Date: %s", Commit.formatDateTime(graph.timestamp(row)));
+        message("%s", Commit.readMessage(id));
+        if (note != null) {
+            message("%s", note);
+        }
+        message("");
+    }
+
     /**
      * Utility function that creates a new file.
      * @param file: File object contains path information.
@@ -838,8 +1253,7 @@ public class Repository {
      * @param blobId: the blobId that file version will be checked.
      */
     private static void checkOutFileFromCommit(String fileName, String blobId) {
-        Commit.saveFileContents(fileName,
-                Commit.readFileBlob(blobId), CWD);
+        Commit.restoreFileBlob(fileName, blobId, CWD);
     }
 
     /**
@@ -847,26 +1261,22 @@ public class Repository {
      * @return: Boolean indicator on emptiness.
      */
     private static Boolean checkStagingAreaEmpty() {
-        List<String> addFiles = plainFilenamesIn(STAGED_ADD_FOLDER);
-        List<String> rmFiles = plainFilenamesIn(STAGED_RM_FOLDER);
-        if (addFiles != null && !addFiles.isEmpty()) {
-            return false;
-        } else if (rmFiles != null && !rmFiles.isEmpty()) {
-            return false;
-        }
-        return true;
+        return StagingIndex.isEmpty();
     }
 
     /**
-     * Utility function to check if untracked files exists.
+     * Utility function to check if a merge would overwrite an untracked working file,
+     * i.e. one the given branch changed since the split point but the current one lacks.
      * @return: Boolean indicator on existence.
      */
-    private static Boolean checkUntrackedFileExists(TreeMap<String, String> trackedFiles) {
-        List<String> cwdFiles = plainFilenamesIn(CWD);
-        if (cwdFiles != null && !cwdFiles.isEmpty()) {
-            List<String> untrackedSet = plainFilenamesIn(CWD).stream().
-                    filter(ele -> !trackedFiles.containsKey(ele)).collect(Collectors.toList());
-            if (!untrackedSet.isEmpty()) {
+    private static Boolean checkUntrackedFileExists(TreeMap<String, String> trackedFiles,
+                                                    TreeMap<String, String> givenFiles,
+                                                    TreeMap<String, String> splitPointFiles) {
+        for (Map.Entry<String, String> given : givenFiles.entrySet()) {
+            String fileName = given.getKey();
+            if (!trackedFiles.containsKey(fileName)
+                    && !given.getValue().equals(splitPointFiles.get(fileName))
+                    && join(CWD, fileName).exists()) {
                 return true;
             }
         }
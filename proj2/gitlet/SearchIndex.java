@@ -0,0 +1,301 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** An inverted index of commit messages for `gitlet search`, mapping each
+ *  token, a lower-case run of letters and digits, to the CommitLog rows of the
+ *  commits whose message contains it. Three files are kept:
+ *      search-terms     every token, length (int) | UTF-8 token, in order of
+ *                       first use, so the K-th token has id K
+ *      search-postings  records previous record offset (long) | row (int),
+ *                       appended; the records of one token form a list, newest
+ *                       first, ending with NONE
+ *      search-heads     magic number, version, number of log rows indexed
+ *                       (int), then the offset of the newest record of each
+ *                       token id (long), updated in place
+ *  Indexing a commit appends its new tokens and one record per token, and
+ *  rewrites only the heads of those tokens and the row count. Rows that the
+ *  count does not cover yet, the commits saved before the index existed or
+ *  during a write that was interrupted, are indexed at the next update;
+ *  indexing a row twice only repeats it in a list.
+ *  @author Sophia Xia
+ */
+class SearchIndex {
+
+    static final File TERMS = join(Commit.OBJECT_FOLDER, "search-terms");
+
+    static final File POSTINGS = join(Commit.OBJECT_FOLDER, "search-postings");
+
+    static final File HEADS = join(Commit.OBJECT_FOLDER, "search-heads");
+
+    private static final int MAGIC = 0x47535248; // "GSRH"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER = 12;
+
+    private static final int POSTING = 8 + 4;
+
+    /** End of a list of records. */
+    private static final long NONE = -1;
+
+    /** The index loaded by this process, null until first needed. */
+    private static SearchIndex loaded;
+
+    /** Id of each token, sorted so that a prefix selects a range of them. */
+    private final TreeMap<String, Integer> terms = new TreeMap<>();
+
+    private long[] heads = new long[16];
+
+    /** Number of log rows indexed. */
+    private int covered;
+
+    /** Returns the search index of this repository, reading it on first use. */
+    static SearchIndex load() {
+        if (loaded == null) {
+            loaded = new SearchIndex();
+            loaded.open();
+        }
+        return loaded;
+    }
+
+    /** Forgets the loaded index, so the next use reads it again. */
+    static void unload() {
+        loaded = null;
+    }
+
+    /** Returns the tokens of TEXT, each once, in order of first appearance. */
+    static List<String> tokens(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i += 1) {
+            boolean inToken = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inToken && start < 0) {
+                start = i;
+            } else if (!inToken && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    /** Indexes the rows of LOG that are not indexed yet. */
+    void update(CommitLog log) {
+        if (covered >= log.size()) {
+            return;
+        }
+        ByteArrayOutputStream newTerms = new ByteArrayOutputStream();
+        ByteArrayOutputStream postings = new ByteArrayOutputStream();
+        TreeMap<Integer, Long> changedHeads = new TreeMap<>();
+        long end = POSTINGS.length();
+        try (DataOutputStream termsOut = new DataOutputStream(newTerms);
+             DataOutputStream postingsOut = new DataOutputStream(postings)) {
+            int[] termCount = {terms.size()};
+            long[] offset = {end};
+            log.forEach(covered, (row, commitId, timestamp, message) -> {
+                for (String token : tokens(message)) {
+                    Integer id = terms.get(token);
+                    try {
+                        if (id == null) {
+                            id = termCount[0];
+                            termCount[0] += 1;
+                            terms.put(token, id);
+                            byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+                            termsOut.writeInt(bytes.length);
+                            termsOut.write(bytes);
+                        }
+                        postingsOut.writeLong(headOf(id));
+                        postingsOut.writeInt(row);
+                    } catch (IOException e) {
+                        throw error("Could not write file " + POSTINGS.toPath());
+                    }
+                    setHead(id, offset[0]);
+                    changedHeads.put(id, offset[0]);
+                    offset[0] += POSTING;
+                }
+            });
+        } catch (IOException e) {
+            throw error("Could not write file " + POSTINGS.toPath());
+        }
+        // heads past the end of the file are all written, leaving no gap
+        for (long id = (HEADS.length() - HEADER) / 8; id < terms.size(); id += 1) {
+            changedHeads.put((int) id, headOf((int) id));
+        }
+        append(TERMS, newTerms.toByteArray());
+        append(POSTINGS, postings.toByteArray());
+        try (RandomAccessFile out = new RandomAccessFile(HEADS, "rw")) {
+            for (Map.Entry<Integer, Long> head : changedHeads.entrySet()) {
+                out.seek(HEADER + 8L * head.getKey());
+                out.writeLong(head.getValue());
+            }
+            covered = log.size();
+            out.seek(8);
+            out.writeInt(covered);
+        } catch (IOException e) {
+            throw error("Could not write file " + HEADS.toPath());
+        }
+    }
+
+    /**
+     * Finds the commits matching a query. Words of the query must all match;
+     * words joined by OR need only one of them to match. A word ending with '*'
+     * matches every token starting with the rest of it, and a word made of
+     * several tokens, such as "fix-up", matches messages with all of them.
+     * @param query: words of the query, e.g. [fix, OR, repair, merge*].
+     * @param log: the commit log, indexed first if it has new commits.
+     * @return ids of the matching commits, most recent first.
+     */
+    List<String> search(List<String> query, CommitLog log) {
+        update(log);
+        BitSet result = null;
+        BitSet clause = null;
+        boolean joined = false;
+        for (String word : query) {
+            if (word.equals("OR")) {
+                if (clause == null || joined) {
+                    throw error("Incorrect operands.");
+                }
+                joined = true;
+                continue;
+            }
+            BitSet rows = rowsOf(word);
+            if (joined) {
+                clause.or(rows);
+            } else {
+                result = and(result, clause);
+                clause = rows;
+            }
+            joined = false;
+        }
+        if (clause == null || joined) {
+            throw error("Incorrect operands.");
+        }
+        return log.mostRecentFirst(and(result, clause));
+    }
+
+    /** Returns the rows matching the query word WORD. */
+    private BitSet rowsOf(String word) {
+        BitSet rows = new BitSet();
+        try (FileChannel channel = FileChannel.open(POSTINGS.toPath())) {
+            MappedByteBuffer postings = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (word.endsWith("*")) {
+                String prefix = word.substring(0, word.length() - 1).toLowerCase(Locale.ROOT);
+                for (Map.Entry<String, Integer> term : terms.tailMap(prefix).entrySet()) {
+                    if (!term.getKey().startsWith(prefix)) {
+                        break;
+                    }
+                    collect(postings, term.getValue(), rows);
+                }
+                return rows;
+            }
+            BitSet all = null;
+            for (String token : tokens(word)) {
+                Integer id = terms.get(token);
+                BitSet tokenRows = new BitSet();
+                if (id != null) {
+                    collect(postings, id, tokenRows);
+                }
+                all = and(all, tokenRows);
+            }
+            return (all == null) ? rows : all;
+        } catch (IOException e) {
+            throw error("Could not read file " + POSTINGS.toPath());
+        }
+    }
+
+    /** Adds to ROWS every row in the list of records of the token with id ID. */
+    private void collect(ByteBuffer postings, int id, BitSet rows) {
+        for (long offset = headOf(id); offset != NONE; offset = postings.getLong((int) offset)) {
+            rows.set(postings.getInt((int) offset + 8));
+        }
+    }
+
+    /** Returns the intersection of A and B, where null stands for every row. */
+    private static BitSet and(BitSet a, BitSet b) {
+        if (a == null || b == null) {
+            return (a == null) ? b : a;
+        }
+        a.and(b);
+        return a;
+    }
+
+    /** Returns the offset of the newest record of token ID, or NONE. */
+    private long headOf(int id) {
+        return (id < heads.length) ? heads[id] : NONE;
+    }
+
+    /** Sets the offset of the newest record of token ID. */
+    private void setHead(int id, long offset) {
+        if (id >= heads.length) {
+            int length = heads.length;
+            heads = Arrays.copyOf(heads, Math.max(2 * length, id + 1));
+            Arrays.fill(heads, length, heads.length, NONE);
+        }
+        heads[id] = offset;
+    }
+
+    /** Reads the tokens and heads, or starts an empty index if there are no
+     *  heads. A token cut short by an interrupted write is dropped. */
+    private void open() {
+        Arrays.fill(heads, NONE);
+        if (!HEADS.isFile() || !TERMS.isFile() || !POSTINGS.isFile()) {
+            writeContents(TERMS, (Object) new byte[0]);
+            writeContents(POSTINGS, (Object) new byte[0]);
+            ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putInt(0);
+            writeContents(HEADS, (Object) header.array());
+            return;
+        }
+        byte[] bytes = readContents(TERMS);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.remaining() >= 4 && buf.remaining() - 4 >= buf.getInt(buf.position())) {
+            int length = buf.getInt();
+            terms.put(new String(bytes, buf.position(), length, StandardCharsets.UTF_8), terms.size());
+            buf.position(buf.position() + length);
+        }
+        if (buf.hasRemaining()) {
+            writeContents(TERMS, (Object) Arrays.copyOf(bytes, buf.position()));
+        }
+        ByteBuffer headBytes = ByteBuffer.wrap(readContents(HEADS));
+        if (headBytes.getInt() != MAGIC || headBytes.getInt() != VERSION) {
+            throw error("Unrecognized search index %s.", HEADS.getPath());
+        }
+        covered = headBytes.getInt();
+        for (int id = 0; id < terms.size() && headBytes.remaining() >= 8; id += 1) {
+            setHead(id, headBytes.getLong());
+        }
+    }
+
+    /** Appends BYTES to FILE. */
+    private static void append(File file, byte[] bytes) {
+        if (bytes.length == 0) {
+            return;
+        }
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file, true))) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw error("Could not write file " + file.toPath());
+        }
+    }
+}
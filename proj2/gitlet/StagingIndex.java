@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** The staging area, kept as one binary file .gitlet/index. Each staged path
+ *  has an entry
+ *      path length (int) | UTF-8 path | mode (int) | raw blob id (20 bytes)
+ *  sorted by path, after a magic number, version and entry count. A file staged
+ *  for addition has the mode of a regular or executable file and the id of a
+ *  blob that `add` already stored; a file staged for removal has mode REMOVED
+ *  and no meaningful blob id. Commit applies the entries to the parent's tree
+ *  without reading any working file. The index is written through the Journal
+ *  when the command ends. Entries may be staged from several worker threads.
+ *  Staging areas of older repositories, copies of files under staged_add/ and
+ *  markers under staged_rm/, are moved into the index on first use.
+ *  @author Sophia Xia
+ */
+class StagingIndex {
+
+    /** File that the staging index is stored in. */
+    static final File INDEX = join(Repository.GITLET_DIR, "index");
+
+    /** Mode of a file staged for removal. */
+    static final int REMOVED = 0;
+
+    /** Mode of a regular file staged for addition. */
+    static final int REGULAR = 0100644;
+
+    /** Mode of an executable file staged for addition. */
+    static final int EXECUTABLE = 0100755;
+
+    private static final int MAGIC = 0x47535447; // "GSTG"
+
+    private static final int VERSION = 1;
+
+    /** A placeholder blob id for removals. */
+    private static final String NO_BLOB = "0".repeat(UID_LENGTH);
+
+    /** Staged entries by path, null until first needed. */
+    private static TreeMap<String, Entry> entries;
+
+    private static boolean changed;
+
+    /** Mode and blob id of one staged path. */
+    private static class Entry {
+        private final int mode;
+        private final String blobId;
+
+        Entry(int mode, String blobId) {
+            this.mode = mode;
+            this.blobId = blobId;
+        }
+    }
+
+    /** Returns the mode that FILE is staged with. */
+    static int modeOf(File file) {
+        return file.canExecute() ? EXECUTABLE : REGULAR;
+    }
+
+    /** Stages the blob BLOBID, already stored, as the new version of PATH. */
+    static synchronized void stageAddition(String path, String blobId, int mode) {
+        load().put(path, new Entry(mode, blobId));
+        changed = true;
+    }
+
+    /** Stages PATH for removal. */
+    static synchronized void stageRemoval(String path) {
+        load().put(path, new Entry(REMOVED, NO_BLOB));
+        changed = true;
+    }
+
+    /** Removes PATH from the staging area, whether staged for addition or removal. */
+    static synchronized void unstage(String path) {
+        if (load().remove(path) != null) {
+            changed = true;
+        }
+    }
+
+    /** Removes every entry. */
+    static synchronized void clear() {
+        if (!load().isEmpty()) {
+            entries.clear();
+            changed = true;
+        }
+    }
+
+    /** Returns true iff nothing is staged. */
+    static synchronized boolean isEmpty() {
+        return load().isEmpty();
+    }
+
+    /** Returns the blob id staged for addition at PATH, or null if there is none. */
+    static synchronized String stagedBlobId(String path) {
+        Entry entry = load().get(path);
+        return (entry == null || entry.mode == REMOVED) ? null : entry.blobId;
+    }
+
+    /** Returns the paths staged for addition and their blob ids, sorted by path. */
+    static synchronized SortedMap<String, String> additions() {
+        TreeMap<String, String> additions = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : load().entrySet()) {
+            if (e.getValue().mode != REMOVED) {
+                additions.put(e.getKey(), e.getValue().blobId);
+            }
+        }
+        return additions;
+    }
+
+    /** Returns the paths staged for removal, sorted. */
+    static synchronized List<String> removals() {
+        List<String> removals = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : load().entrySet()) {
+            if (e.getValue().mode == REMOVED) {
+                removals.add(e.getKey());
+            }
+        }
+        return Collections.unmodifiableList(removals);
+    }
+
+    /** Records the index in the Journal if it changed. */
+    static synchronized void save() {
+        if (!changed) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                byte[] path = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(path.length);
+                out.write(path);
+                out.writeInt(e.getValue().mode);
+                out.write(rawId(e.getValue().blobId));
+            }
+        } catch (IOException e) {
+            throw error("Could not write file " + INDEX.toPath());
+        }
+        Journal.write(INDEX, bytes.toByteArray());
+        changed = false;
+    }
+
+    /** Forgets the entries read and any changes not saved, so the next use
+     *  reads INDEX again. */
+    static synchronized void unload() {
+        entries = null;
+        changed = false;
+    }
+
+    /** Reads INDEX on first use, or moves an older staging area into it. */
+    private static TreeMap<String, Entry> load() {
+        if (entries != null) {
+            return entries;
+        }
+        entries = new TreeMap<>();
+        if (!INDEX.isFile()) {
+            importStagingFolders();
+            return entries;
+        }
+        byte[] bytes = readContents(INDEX);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            throw error("Unrecognized staging index %s.", INDEX.getPath());
+        }
+        int count = buf.getInt();
+        for (int i = 0; i < count; i += 1) {
+            int length = buf.getInt();
+            String path = new String(bytes, buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            int mode = buf.getInt();
+            entries.put(path, new Entry(mode, hexId(bytes, buf.position())));
+            buf.position(buf.position() + RAW_UID_LENGTH);
+        }
+        return entries;
+    }
+
+    /** Stages the contents of the staging folders of an older repository,
+     *  storing the blobs of staged copies, and clears the folders. */
+    private static void importStagingFolders() {
+        List<String> adds = plainFilePathsIn(Repository.STAGED_ADD_FOLDER);
+        List<String> removals = plainFilePathsIn(Repository.STAGED_RM_FOLDER);
+        if (adds != null && !adds.isEmpty()) {
+            for (String path : adds) {
+                File file = join(Repository.STAGED_ADD_FOLDER, path);
+                entries.put(path, new Entry(modeOf(file), Commit.saveFileBlob(file, null)));
+            }
+            Journal.clear(Repository.STAGED_ADD_FOLDER);
+            changed = true;
+        }
+        if (removals != null && !removals.isEmpty()) {
+            for (String path : removals) {
+                entries.put(path, new Entry(REMOVED, NO_BLOB));
+            }
+            Journal.clear(Repository.STAGED_RM_FOLDER);
+            changed = true;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** Remembers the blob id of working files together with their stat data, so
+ *  that a file whose size, modification time and inode are unchanged is not
+ *  read and hashed again. The cache is stored in .gitlet/stat-cache as a magic
+ *  number and version, the session and offset in the change journal of the
+ *  last status that saw the files of the working tree through it (see
+ *  WorkTree), and an entry count, then per file
+ *      name length (int) | UTF-8 name | size (long) | mtime in ns (long)
+ *      | inode (long) | racy (boolean) | raw blob id (20 bytes)
+ *  A file modified shortly before the cache is written could be modified
+ *  again within the same timestamp granularity without its stat data changing,
+ *  so such "racy" entries never match and the file is hashed again next time,
+ *  unless the journal shows that it did not change. They are kept, so that
+ *  the entries list every file that the last status saw.
+ *  Files may be looked up from several worker threads at once.
+ *  @author Sophia Xia
+ */
+class StatCache {
+
+    /** File that the stat cache is stored in. */
+    static final File STAT_CACHE = join(Repository.GITLET_DIR, "stat-cache");
+
+    private static final int MAGIC = 0x47535443; // "GSTC"
+
+    private static final int VERSION = 2;
+
+    /** Entries modified less than this many milliseconds before saving are racy. */
+    private static final long RACY_WINDOW = 2000;
+
+    /** Cached entries by file name, null until first needed. */
+    private static TreeMap<String, Entry> entries;
+
+    private static boolean changed;
+
+    /** Session of the change journal at the last status that used it. */
+    private static long session;
+
+    /** Offset in the change journal of the last status that used it, 0 if none. */
+    private static long offset;
+
+    /** Paths changed since then, when this command may trust the other
+     *  entries without looking at their files, and null otherwise. */
+    private static TreeSet<String> changedPaths;
+
+    /** Stat data and blob id of one working file. */
+    private static class Entry {
+        private final long size;
+        private final long mtime;
+        private final long inode;
+        private final boolean racy;
+        private final String blobId;
+
+        Entry(long size, long mtime, long inode, boolean racy, String blobId) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.racy = racy;
+            this.blobId = blobId;
+        }
+
+        boolean matches(Entry other) {
+            return !racy && size == other.size && mtime == other.mtime && inode == other.inode;
+        }
+    }
+
+    /**
+     * Returns the blob id of a file in the working directory, hashing its
+     * contents only if its stat data changed since it was last hashed.
+     * @param fileName: name of the file in the working directory.
+     * @return its blob id, or null if there is no such file.
+     */
+    static String blobIdOf(String fileName) {
+        Entry cached = lookup(fileName);
+        if (cached != null && unchanged(fileName)) {
+            return cached.blobId;
+        }
+        File file = join(Repository.CWD, fileName);
+        Entry stat = stat(file, null);
+        if (stat == null) {
+            return null;
+        }
+        if (cached != null && cached.matches(stat)) {
+            return cached.blobId;
+        }
+        String blobId = sha1(file);
+        // stat data from before the read, so a write during it is noticed next time
+        remember(fileName, new Entry(stat.size, stat.mtime, stat.inode, false, blobId));
+        return blobId;
+    }
+
+    private static synchronized Entry lookup(String fileName) {
+        return load().get(fileName);
+    }
+
+    /** Returns true iff the change journal shows that neither FILENAME nor a
+     *  directory above it changed since its entry was made. */
+    private static synchronized boolean unchanged(String fileName) {
+        if (changedPaths == null) {
+            return false;
+        }
+        for (int slash = fileName.indexOf('/'); slash >= 0;
+             slash = fileName.indexOf('/', slash + 1)) {
+            if (changedPaths.contains(fileName.substring(0, slash))) {
+                return false;
+            }
+        }
+        return !changedPaths.contains(fileName);
+    }
+
+    /** Returns the session of the change journal at the last status that used it. */
+    static synchronized long session() {
+        load();
+        return session;
+    }
+
+    /** Returns the offset in the change journal of the last status that used
+     *  it, or 0 if there is none. */
+    static synchronized long offset() {
+        load();
+        return offset;
+    }
+
+    /** Returns the names of the files that have entries. */
+    static synchronized Set<String> names() {
+        return new HashSet<>(load().keySet());
+    }
+
+    /**
+     * Records that a command sees the working tree as of a point of the change
+     * journal, and, if the changes since the last one are known, drops the
+     * entries of the paths changed and of the files below them, then trusts
+     * the entries of the other files for the rest of the command.
+     * @param newSession: session of the journal at that point.
+     * @param newOffset: offset of that point.
+     * @param paths: paths changed since the last point, or null if unknown.
+     */
+    static synchronized void watched(long newSession, long newOffset, Set<String> paths) {
+        load();
+        session = newSession;
+        offset = newOffset;
+        changedPaths = (paths == null) ? null : new TreeSet<>(paths);
+        if (paths != null) {
+            for (String path : paths) {
+                entries.remove(path);
+                entries.subMap(path + "/", path + "0").clear(); // '0' follows '/'
+            }
+        }
+        changed = true;
+    }
+
+    /** Records that FILENAME was just written with the contents of BLOBID. */
+    static void written(String fileName, String blobId) {
+        Entry stat = stat(join(Repository.CWD, fileName), blobId);
+        if (stat != null) {
+            remember(fileName, stat);
+        }
+    }
+
+    private static synchronized void remember(String fileName, Entry entry) {
+        load().put(fileName, entry);
+        changed = true;
+    }
+
+    /** Forgets every entry whose name is not in NAMES, the files currently in
+     *  the working directory. */
+    static synchronized void retainAll(Collection<String> names) {
+        Set<String> keep = new HashSet<>(names);
+        if (load().keySet().retainAll(keep)) {
+            changed = true;
+        }
+    }
+
+    /** Writes the cache back to STAT_CACHE if it changed, leaving out racy entries. */
+    static synchronized void save() {
+        changedPaths = null;
+        if (!changed || !Repository.GITLET_DIR.isDirectory()) {
+            return;
+        }
+        long racy = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - RACY_WINDOW);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(session);
+            out.writeLong(offset);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                Entry entry = e.getValue();
+                if (!entry.racy && entry.mtime >= racy) {
+                    entry = new Entry(entry.size, entry.mtime, entry.inode, true, entry.blobId);
+                    e.setValue(entry);
+                }
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.writeBoolean(entry.racy);
+                out.write(rawId(entry.blobId));
+            }
+        } catch (IOException e) {
+            throw error("Could not write file " + STAT_CACHE.toPath());
+        }
+        writeContents(STAT_CACHE, (Object) bytes.toByteArray());
+        changed = false;
+    }
+
+    /** Forgets the entries read and any changes not saved, so the next use
+     *  reads STAT_CACHE again. */
+    static synchronized void unload() {
+        entries = null;
+        changed = false;
+        changedPaths = null;
+    }
+
+    /** Reads STAT_CACHE on first use. An unreadable cache is treated as empty,
+     *  and one of version 1, without racy entries, as at no journal point. */
+    private static TreeMap<String, Entry> load() {
+        if (entries != null) {
+            return entries;
+        }
+        entries = new TreeMap<>();
+        session = 0;
+        offset = 0;
+        if (!STAT_CACHE.isFile()) {
+            return entries;
+        }
+        byte[] bytes = readContents(STAT_CACHE);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        try {
+            int version = (buf.getInt() == MAGIC) ? buf.getInt() : -1;
+            if (version != 1 && version != VERSION) {
+                return entries;
+            }
+            if (version == VERSION) {
+                session = buf.getLong();
+                offset = buf.getLong();
+            }
+            int count = buf.getInt();
+            for (int i = 0; i < count; i += 1) {
+                int length = buf.getInt();
+                String name = new String(bytes, buf.position(), length, StandardCharsets.UTF_8);
+                buf.position(buf.position() + length);
+                long size = buf.getLong();
+                long mtime = buf.getLong();
+                long inode = buf.getLong();
+                boolean racy = version == VERSION && buf.get() != 0;
+                String blobId = hexId(bytes, buf.position());
+                buf.position(buf.position() + RAW_UID_LENGTH);
+                entries.put(name, new Entry(size, mtime, inode, racy, blobId));
+            }
+        } catch (RuntimeException e) {
+            entries.clear();
+            session = 0;
+            offset = 0;
+        }
+        return entries;
+    }
+
+    /** Returns the stat data of FILE with BLOBID, or null if FILE is not a normal file.
+     *  The inode number comes from the "unix" attribute view where there is one. */
+    private static Entry stat(File file, String blobId) {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(file.toPath(),
+                    "unix:isRegularFile,size,lastModifiedTime,ino");
+            if (!(Boolean) attrs.get("isRegularFile")) {
+                return null;
+            }
+            return new Entry((Long) attrs.get("size"),
+                    ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                    (Long) attrs.get("ino"), false, blobId);
+        } catch (UnsupportedOperationException e) {
+            return basicStat(file, blobId);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Returns the stat data of FILE with BLOBID where there is no "unix" view,
+     *  with the hash of the file key standing in for the inode number. */
+    private static Entry basicStat(File file, String blobId) {
+        try {
+            BasicFileAttributes attrs =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            Object key = attrs.fileKey();
+            return new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    (key == null) ? 0 : key.hashCode(), false, blobId);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
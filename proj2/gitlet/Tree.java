@@ -0,0 +1,235 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Hash-addressed directory trees. A tree lists the entries of one directory,
+ *  sorted by name: a file maps to its blob id and a subdirectory, whose name
+ *  ends with '/', to the id of its own tree. A tree is stored as
+ *      entry count (int), then per entry name length (int) | UTF-8 name | raw id
+ *  and its id is the SHA-1 of a header "tree LENGTH\0" followed by that
+ *  encoding, so equal directories share one tree object, in one commit or
+ *  across many, and no tree shares an id with a blob of the same bytes. Trees
+ *  written before the header existed keep the bare SHA-1 as their id. Updating a tree rewrites only the
+ *  trees on the paths that changed and keeps the ids of all the others, and two
+ *  trees are compared without descending into subtrees whose ids are equal.
+ *  Paths of files below the root are separated by '/'.
+ *  @author Sophia Xia
+ */
+class Tree {
+
+    /** Number of decoded trees kept in memory. */
+    private static final int CACHE_SIZE = 4096;
+
+    /** Recently read trees, least recently used first. */
+    private static final Map<String, SortedMap<String, String>> CACHE =
+            new LinkedHashMap<String, SortedMap<String, String>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, SortedMap<String, String>> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /** Returns true iff NAME is the name of a subdirectory entry. */
+    static boolean isTree(String name) {
+        return name.endsWith("/");
+    }
+
+    /**
+     * Reads the entries of a tree.
+     * @param treeId: id of the tree.
+     * @return its entries, sorted by name; must not be modified.
+     */
+    static SortedMap<String, String> read(String treeId) {
+        synchronized (CACHE) {
+            SortedMap<String, String> entries = CACHE.get(treeId);
+            if (entries != null) {
+                return entries;
+            }
+        }
+        byte[] bytes = ObjectStore.read(ObjectStore.TREE, treeId);
+        if (bytes == null) {
+            throw error("Tree %s is missing from the repository.", treeId);
+        }
+        SortedMap<String, String> result = Collections.unmodifiableSortedMap(decode(bytes));
+        synchronized (CACHE) {
+            CACHE.put(treeId, result);
+        }
+        return result;
+    }
+
+    /** Returns the entries of the tree encoded as BYTES, sorted by name. */
+    static TreeMap<String, String> decode(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        int count = buf.getInt();
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (int i = 0; i < count; i += 1) {
+            int length = buf.getInt();
+            String name = new String(bytes, buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            entries.put(name, hexId(bytes, buf.position()));
+            buf.position(buf.position() + RAW_UID_LENGTH);
+        }
+        return entries;
+    }
+
+    /**
+     * Stores a tree unless an equal one is stored already.
+     * @param entries: entries of the tree, sorted by name.
+     * @return the id of the tree.
+     */
+    static String write(SortedMap<String, String> entries) {
+        List<byte[]> names = new ArrayList<>(entries.size());
+        int size = 4;
+        for (String name : entries.keySet()) {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            names.add(nameBytes);
+            size += 4 + nameBytes.length + RAW_UID_LENGTH;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(entries.size());
+        Iterator<byte[]> name = names.iterator();
+        for (String id : entries.values()) {
+            byte[] nameBytes = name.next();
+            buf.putInt(nameBytes.length).put(nameBytes).put(rawId(id));
+        }
+        byte[] bytes = buf.array();
+        String treeId = idOf(bytes);
+        if (!ObjectStore.contains(ObjectStore.TREE, treeId)) {
+            ObjectStore.writeLoose(ObjectStore.TREE, treeId, bytes);
+        }
+        return treeId;
+    }
+
+    /** Returns the id of the tree encoded as BYTES. */
+    static String idOf(byte[] bytes) {
+        return sha1("tree " + bytes.length + "\0", bytes);
+    }
+
+    /** Returns true iff ID is the id of the tree encoded as BYTES, hashed with
+     *  or, as before the header existed, without its header. */
+    static boolean isIdOf(String id, byte[] bytes) {
+        return id.equals(idOf(bytes)) || id.equals(sha1((Object) bytes));
+    }
+
+    /**
+     * Applies changes to a tree, writing only the trees that change.
+     * @param treeId: id of the tree to change, or null to start from an empty one.
+     * @param changes: new blob id of each changed file path, or null to remove it.
+     * @return id of the changed tree.
+     */
+    static String update(String treeId, NavigableMap<String, String> changes) {
+        return write(apply(treeId, changes));
+    }
+
+    /** Returns the entries of TREEID, or of an empty tree if it is null, after
+     *  CHANGES, with every changed subtree written and empty subtrees left out. */
+    private static TreeMap<String, String> apply(String treeId,
+                                                 NavigableMap<String, String> changes) {
+        TreeMap<String, String> entries = (treeId == null)
+                ? new TreeMap<>() : new TreeMap<>(read(treeId));
+        String path = changes.isEmpty() ? null : changes.firstKey();
+        while (path != null) {
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                String blobId = changes.get(path);
+                if (blobId == null) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, blobId);
+                }
+                path = changes.higherKey(path);
+                continue;
+            }
+            // paths below one subdirectory are adjacent, and sort before dir + '0'
+            String dir = path.substring(0, slash + 1);
+            NavigableMap<String, String> below =
+                    changes.subMap(dir, true, path.substring(0, slash) + '0', false);
+            TreeMap<String, String> stripped = new TreeMap<>();
+            for (Map.Entry<String, String> change : below.entrySet()) {
+                stripped.put(change.getKey().substring(dir.length()), change.getValue());
+            }
+            TreeMap<String, String> child = apply(entries.get(dir), stripped);
+            if (child.isEmpty()) {
+                entries.remove(dir);
+            } else {
+                entries.put(dir, write(child));
+            }
+            path = changes.higherKey(below.lastKey());
+        }
+        return entries;
+    }
+
+    /**
+     * Looks up one file.
+     * @param treeId: id of the root tree, or null for an empty tree.
+     * @param path: path of the file below the root.
+     * @return its blob id, or null if the tree has no such file.
+     */
+    static String lookup(String treeId, String path) {
+        int start = 0;
+        int slash = path.indexOf('/');
+        while (treeId != null && slash >= 0) {
+            treeId = read(treeId).get(path.substring(start, slash + 1));
+            start = slash + 1;
+            slash = path.indexOf('/', start);
+        }
+        return (treeId == null) ? null : read(treeId).get(path.substring(start));
+    }
+
+    /**
+     * Lists every file of a tree and its subtrees.
+     * @param treeId: id of the tree.
+     * @param prefix: path of the tree below the root, "" or ending with '/'.
+     * @param files: map that the path and blob id of each file are added to.
+     */
+    static void flatten(String treeId, String prefix, Map<String, String> files) {
+        for (Map.Entry<String, String> entry : read(treeId).entrySet()) {
+            if (isTree(entry.getKey())) {
+                flatten(entry.getValue(), prefix + entry.getKey(), files);
+            } else {
+                files.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Finds the files that differ between two trees, skipping every pair of
+     * subtrees with equal ids.
+     * @param from: id of the first tree, or null for an empty tree.
+     * @param to: id of the second tree, or null for an empty tree.
+     * @param prefix: path of both trees below the root, "" or ending with '/'.
+     * @param changes: map that the path of each file that is different or
+     *                 missing in TO is added to, with its blob id in TO or null.
+     */
+    static void diff(String from, String to, String prefix, Map<String, String> changes) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        SortedMap<String, String> a = (from == null) ? Collections.emptySortedMap() : read(from);
+        SortedMap<String, String> b = (to == null) ? Collections.emptySortedMap() : read(to);
+        TreeMap<String, String> names = new TreeMap<>(a);
+        names.putAll(b);
+        for (String name : names.keySet()) {
+            String idA = a.get(name);
+            String idB = b.get(name);
+            if (isTree(name)) {
+                diff(idA, idB, prefix + name, changes);
+            } else if (idA == null || !idA.equals(idB)) {
+                changes.put(prefix + name, idB);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Unified diffs of the versions of files, written to a stream one file at a
+ *  time. Each file gets a header
+ *      diff --git a/PATH b/PATH
+ *      --- a/PATH        (or /dev/null if the file is new)
+ *      +++ b/PATH        (or /dev/null if it was deleted)
+ *  and hunks of changed lines with CONTEXT unchanged lines around them,
+ *      @@ -first,count +first,count @@
+ *  where hunks closer than twice CONTEXT lines are joined. The lines are
+ *  matched by LineDiff over interned ids and copied from the bytes of the
+ *  versions, so the only arrays allocated per file are the ids, the matches
+ *  and the edit script, each an int or byte per line.
+ *  @author Sophia Xia
+ */
+class UnifiedDiff {
+
+    /** Number of unchanged lines shown around a change. */
+    private static final int CONTEXT = 3;
+
+    private static final byte KEEP = ' ';
+
+    private static final byte DELETE = '-';
+
+    private static final byte INSERT = '+';
+
+    private static final byte[] NO_NEWLINE = "\n\\ No newline at end of file\n"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final OutputStream out;
+
+    /** Writes diffs to OUT. */
+    UnifiedDiff(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes the diff of two versions of a file.
+     * @param path: path of the file.
+     * @param before: contents of the old version, or null if there was none.
+     * @param after: contents of the new version, or null if there is none.
+     */
+    void write(String path, byte[] before, byte[] after) throws IOException {
+        print("diff --git a/" + path + " b/" + path + "\n");
+        byte[] a = (before == null) ? new byte[0] : before;
+        byte[] b = (after == null) ? new byte[0] : after;
+        if (LineDiff.isBinary(a) || LineDiff.isBinary(b)) {
+            print("Binary files " + ((before == null) ? "/dev/null" : "a/" + path) + " and "
+                    + ((after == null) ? "/dev/null" : "b/" + path) + " differ\n");
+            return;
+        }
+        print("--- " + ((before == null) ? "/dev/null" : "a/" + path) + "\n");
+        print("+++ " + ((after == null) ? "/dev/null" : "b/" + path) + "\n");
+        LineDiff.Interner interner = new LineDiff.Interner();
+        LineDiff.Lines from = interner.split(a);
+        LineDiff.Lines to = interner.split(b);
+        int[] match = LineDiff.match(from.ids, to.ids);
+
+        // The edit script, and the line of each version before each edit.
+        byte[] edits = new byte[from.size() + to.size()];
+        int[] fromAt = new int[edits.length + 1];
+        int[] toAt = new int[edits.length + 1];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < from.size() || j < to.size()) {
+            fromAt[count] = i;
+            toAt[count] = j;
+            if (i < from.size() && match[i] < 0) {
+                edits[count] = DELETE;
+                i += 1;
+            } else if (j < to.size() && (i == from.size() || j < match[i])) {
+                edits[count] = INSERT;
+                j += 1;
+            } else {
+                edits[count] = KEEP;
+                i += 1;
+                j += 1;
+            }
+            count += 1;
+        }
+        fromAt[count] = i;
+        toAt[count] = j;
+
+        int k = nextChange(edits, 0, count);
+        while (k < count) {
+            int last = k;
+            int next = nextChange(edits, k + 1, count);
+            while (next < count && next - last - 1 <= 2 * CONTEXT) {
+                last = next;
+                next = nextChange(edits, next + 1, count);
+            }
+            int start = Math.max(0, k - CONTEXT);
+            int end = Math.min(count, last + 1 + CONTEXT);
+            print("@@ -" + range(fromAt[start], fromAt[end] - fromAt[start])
+                    + " +" + range(toAt[start], toAt[end] - toAt[start]) + " @@\n");
+            for (int e = start; e < end; e += 1) {
+                if (edits[e] == INSERT) {
+                    writeLine(INSERT, to, toAt[e]);
+                } else {
+                    writeLine(edits[e], from, fromAt[e]);
+                }
+            }
+            k = next;
+        }
+    }
+
+    /** Returns the index of the first change of EDITS in [FROM, COUNT), or COUNT. */
+    private static int nextChange(byte[] edits, int from, int count) {
+        int k = from;
+        while (k < count && edits[k] == KEEP) {
+            k += 1;
+        }
+        return k;
+    }
+
+    /** Returns the hunk range of COUNT lines after the first START lines. */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return Integer.toString(start + 1);
+        }
+        return ((count == 0) ? start : start + 1) + "," + count;
+    }
+
+    /** Writes line K of LINES after the mark MARK. */
+    private void writeLine(byte mark, LineDiff.Lines lines, int k) throws IOException {
+        int start = lines.start(k);
+        int end = lines.start(k + 1);
+        out.write(mark);
+        out.write(lines.bytes, start, end - start);
+        if (lines.bytes[end - 1] != '\n') {
+            out.write(NO_NEWLINE);
+        }
+    }
+
+    private void print(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
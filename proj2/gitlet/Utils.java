@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,12 +10,16 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
 
@@ -63,6 +68,66 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Size of the buffer that files are streamed through. */
+    static final int STREAM_BUFFER = 1 << 16;
+
+    /** Returns the SHA-1 hash of the contents of FILE, which must be a normal
+     *  file. The file is read through a fixed-size buffer, so files of any size
+     *  are hashed in constant memory; the result equals sha1(readContents(FILE)). */
+    static String sha1(File file) {
+        MessageDigest md = sha1Digest();
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER);
+            while (channel.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return hexId(md.digest(), 0);
+    }
+
+    /** Returns a new SHA-1 message digest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** The length of a complete SHA-1 UID in raw bytes. */
+    static final int RAW_UID_LENGTH = UID_LENGTH / 2;
+
+    /** Hexadecimal digits, indexed by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Returns the RAW_UID_LENGTH bytes denoted by the hexadecimal UID ID. */
+    static byte[] rawId(String id) {
+        if (id.length() != UID_LENGTH) {
+            throw new IllegalArgumentException("not a complete UID: " + id);
+        }
+        byte[] raw = new byte[RAW_UID_LENGTH];
+        for (int i = 0; i < RAW_UID_LENGTH; i += 1) {
+            raw[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+
+    /** Returns the hexadecimal UID of the RAW_UID_LENGTH bytes of RAW
+     *  starting at OFFSET. */
+    static String hexId(byte[] raw, int offset) {
+        char[] hex = new char[UID_LENGTH];
+        for (int i = 0; i < RAW_UID_LENGTH; i += 1) {
+            int b = raw[offset + i] & 0xff;
+            hex[2 * i] = HEX_DIGITS[b >>> 4];
+            hex[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(hex);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -168,6 +233,35 @@ class Utils {
             }
         };
 
+    /** Returns a list of the paths of all plain files in the directory DIR and
+     *  its subdirectories, relative to DIR with '/' between components, in
+     *  lexicographic order as Java Strings.  Directories named .gitlet are not
+     *  entered.  Returns null if DIR does not denote a directory. */
+    static List<String> plainFilePathsIn(File dir) {
+        if (!dir.isDirectory()) {
+            return null;
+        }
+        List<String> paths = new ArrayList<>();
+        addPlainFilePaths(dir, "", paths);
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /** Adds to PATHS the path of every plain file under DIR, prefixed by PREFIX. */
+    private static void addPlainFilePaths(File dir, String prefix, List<String> paths) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                paths.add(prefix + file.getName());
+            } else if (file.isDirectory() && !file.getName().equals(".gitlet")) {
+                addPlainFilePaths(file, prefix + file.getName() + "/", paths);
+            }
+        }
+    }
+
     /** Returns a list of the names of all plain files in the directory DIR, in
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
@@ -220,6 +314,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
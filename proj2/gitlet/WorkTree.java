@@ -0,0 +1,387 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** The paths of the working files, and a journal of their changes. While
+ *  `gitlet daemon` runs, a thread of it follows what a WatchService reports
+ *  on every directory of the working tree and appends the path of each file
+ *  or directory changed to the journal .gitlet/fsmonitor,
+ *      magic (int) | version (int) | session (long)
+ *  then records kind (byte) | length (int) | UTF-8 path. To get the changes
+ *  up to now, a gitlet creates a file .gitlet/fsmonitor-sync-TOKEN and waits
+ *  for the SYNC record of it: a watch service reads the events of all its
+ *  directories in order, so every change made before then is in the journal
+ *  ahead of that record. The stat cache keeps the session and offset of the
+ *  record of the last status, and holds an entry for each file that was
+ *  there; the next status takes those files, adds or drops the paths changed
+ *  since and trusts the blob ids of all others without looking at them. That
+ *  works in the daemon and in a gitlet started by itself alike, as long as
+ *  the daemon holds its lock on the journal. Everything is looked at again
+ *  when no daemon watches, when the watch service lost events (an ALL
+ *  record), or when the journal outgrew MAX_JOURNAL and a new session began.
+ *  Nothing is watched where the watch service of the platform only polls,
+ *  since its events can come seconds late.
+ *  @author Sophia Xia
+ */
+class WorkTree {
+
+    /** Journal of the changes to the working tree. */
+    static final File JOURNAL = join(Repository.GITLET_DIR, "fsmonitor");
+
+    /** Start of the names of the files created to flush the events. */
+    static final String SYNC_PREFIX = "fsmonitor-sync-";
+
+    private static final int MAGIC = 0x4746534d; // "GFSM"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER = 16;
+
+    /** Record of a file or directory changed, created or deleted. */
+    private static final byte PATH = 1;
+
+    /** Record of lost events: anything may have changed. */
+    private static final byte ALL = 2;
+
+    /** Record of a sync file. */
+    private static final byte SYNC = 3;
+
+    /** Length past which the journal starts a new session. */
+    private static final long MAX_JOURNAL = 256 << 10;
+
+    /** Milliseconds to wait for the record of a sync file. */
+    private static final long SYNC_TIMEOUT = 1000;
+
+    /** The watch service of the daemon, null when this process does not watch. */
+    private static WatchService watcher;
+
+    /** The journal, locked, while this process watches. */
+    private static FileChannel journal;
+
+    /** Key of .gitlet, which is watched for sync files only. */
+    private static WatchKey syncKey;
+
+    /** Path of each watched directory by its key, "" for the working directory. */
+    private static final Map<WatchKey, String> DIRECTORIES = new HashMap<>();
+
+    /** Key of each watched directory by its path. */
+    private static final TreeMap<String, WatchKey> KEYS = new TreeMap<>();
+
+    /** The changes to the working tree since a point of the journal. */
+    static class Changes {
+        /** Session of the journal up to now. */
+        final long session;
+        /** Offset up to now, just after the record of the sync file. */
+        final long offset;
+        /** Paths changed since that point, null if they are not known. */
+        final Set<String> paths;
+
+        Changes(long session, long offset, Set<String> paths) {
+            this.session = session;
+            this.offset = offset;
+            this.paths = paths;
+        }
+    }
+
+    /** Returns the sorted paths of the working files, as plainFilePathsIn
+     *  does, and lets the stat cache trust the files that did not change. */
+    static List<String> files() {
+        Changes changes = changes(StatCache.session(), StatCache.offset());
+        if (changes == null) {
+            return plainFilePathsIn(Repository.CWD);
+        }
+        StatCache.watched(changes.session, changes.offset, changes.paths);
+        if (changes.paths == null) {
+            return plainFilePathsIn(Repository.CWD);
+        }
+        TreeSet<String> files = new TreeSet<>(StatCache.names());
+        for (String path : changes.paths) {
+            files.remove(path);
+            files.subSet(path + "/", path + "0").clear(); // '0' follows '/'
+            File file = join(Repository.CWD, path);
+            if (file.isFile()) {
+                files.add(path);
+            } else if (file.isDirectory()) {
+                for (String below : plainFilePathsIn(file)) {
+                    files.add(path + "/" + below);
+                }
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Reads the changes to the working tree from the journal.
+     * @param session: session of the journal at the earlier point.
+     * @param offset: offset of the earlier point, 0 if there is none.
+     * @return the changes since then, or null if no daemon watches.
+     */
+    static Changes changes(long session, long offset) {
+        if (!JOURNAL.isFile() || !watching()) {
+            return null;
+        }
+        String token = SYNC_PREFIX + Long.toHexString(new Random().nextLong() >>> 1);
+        File sync = join(Repository.GITLET_DIR, token);
+        try {
+            Files.createFile(sync.toPath());
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SYNC_TIMEOUT);
+            while (System.nanoTime() < deadline) {
+                Changes changes = read(readContents(JOURNAL), token, session, offset);
+                if (changes != null) {
+                    return changes;
+                }
+                Thread.sleep(1);
+            }
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            sync.delete();
+        }
+    }
+
+    /** Returns the changes in the journal BYTES since OFFSET of SESSION, up to
+     *  the SYNC record of TOKEN, or null if there is no such record yet. */
+    private static Changes read(byte[] bytes, String token, long session, long offset) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            return null; // a new session being started
+        }
+        long current = buf.getLong();
+        boolean known = current == session && offset >= HEADER;
+        Set<String> paths = new TreeSet<>();
+        while (buf.remaining() >= 5) {
+            int start = buf.position();
+            byte kind = buf.get();
+            int length = buf.getInt();
+            if (buf.remaining() < length) {
+                break;
+            }
+            String path = new String(bytes, buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            if (kind == SYNC && path.equals(token)) {
+                known &= offset <= start;
+                return new Changes(current, buf.position(), known ? paths : null);
+            }
+            if (start >= offset) {
+                if (kind == PATH) {
+                    paths.add(path);
+                } else if (kind == ALL) {
+                    known = false;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns true iff some process watches the working tree. */
+    private static boolean watching() {
+        if (journal != null) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(JOURNAL.toPath(), StandardOpenOption.READ)) {
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, true);
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (IOException | OverlappingFileLockException e) {
+            return false;
+        }
+    }
+
+    /** Starts watching the working tree in the background, if the platform can
+     *  do it promptly. */
+    static synchronized void watch() {
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            if (watcher.getClass().getName().contains("Polling")) {
+                unwatch();
+                return;
+            }
+            journal = FileChannel.open(JOURNAL.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            journal.lock();
+            startSession();
+            syncKey = Repository.GITLET_DIR.toPath().register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE);
+            addDirectory("");
+        } catch (IOException e) {
+            unwatch(); // as when there are too many directories to watch
+            return;
+        }
+        Thread thread = new Thread(WorkTree::follow, "gitlet-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops watching the working tree, and removes the journal. */
+    static synchronized void unwatch() {
+        try {
+            if (watcher != null) {
+                watcher.close();
+            }
+            if (journal != null) {
+                journal.close();
+                Files.deleteIfExists(JOURNAL.toPath());
+            }
+        } catch (IOException e) {
+            // without its lock, the journal is not used any more either way
+        }
+        watcher = null;
+        journal = null;
+        syncKey = null;
+        DIRECTORIES.clear();
+        KEYS.clear();
+    }
+
+    /** Writes the events of the watch service to the journal until it is closed. */
+    private static void follow() {
+        WatchService service = watcher;
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                synchronized (WorkTree.class) {
+                    if (journal == null) {
+                        return;
+                    }
+                    ByteArrayOutputStream records = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(records);
+                    for (; key != null; key = service.poll()) {
+                        process(key, out);
+                    }
+                    if (journal.size() + records.size() > MAX_JOURNAL) {
+                        startSession();
+                    }
+                    journal.write(ByteBuffer.wrap(records.toByteArray()), journal.size());
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // stopped
+        } catch (IOException e) {
+            unwatch(); // the journal is incomplete from here on
+        }
+    }
+
+    /** Writes a record to OUT for each event of KEY, following the directories
+     *  created and deleted. */
+    private static void process(WatchKey key, DataOutputStream out) throws IOException {
+        boolean lost = false;
+        String dir = DIRECTORIES.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                lost = true;
+                continue;
+            }
+            String name = event.context().toString();
+            if (key == syncKey) {
+                if (name.startsWith(SYNC_PREFIX)) {
+                    record(out, SYNC, name);
+                }
+                continue;
+            }
+            if (dir == null || (dir.isEmpty() && name.equals(".gitlet"))) {
+                continue;
+            }
+            String path = dir.isEmpty() ? name : dir + "/" + name;
+            record(out, PATH, path);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                removeDirectory(path);
+            } else if (join(Repository.CWD, path).isDirectory() && !KEYS.containsKey(path)) {
+                addDirectory(path);
+            }
+        }
+        if (!key.reset() && dir != null && !dir.isEmpty()) {
+            removeDirectory(dir);
+        }
+        if (lost) {
+            record(out, ALL, "");
+            for (WatchKey watched : KEYS.values()) {
+                watched.cancel();
+            }
+            DIRECTORIES.clear();
+            KEYS.clear();
+            addDirectory("");
+        }
+    }
+
+    /** Writes a record of KIND and PATH to OUT. */
+    private static void record(DataOutputStream out, byte kind, String path) throws IOException {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(kind);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Empties the journal and gives it a new session, so that the points of
+     *  the old one are no longer found. */
+    private static void startSession() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putLong(new Random().nextLong()).flip();
+        journal.truncate(0);
+        journal.write(header, 0);
+    }
+
+    /** Watches the directory PATH and every directory below it. */
+    private static void addDirectory(String path) throws IOException {
+        File dir = path.isEmpty() ? Repository.CWD : join(Repository.CWD, path);
+        WatchKey key = dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        DIRECTORIES.put(key, path);
+        KEYS.put(path, key);
+        File[] children = dir.listFiles(File::isDirectory);
+        if (children == null) {
+            return;
+        }
+        String prefix = path.isEmpty() ? "" : path + "/";
+        for (File child : children) {
+            if (!(path.isEmpty() && child.getName().equals(".gitlet"))) {
+                addDirectory(prefix + child.getName());
+            }
+        }
+    }
+
+    /** Stops watching the directory PATH, which was deleted, and those below it. */
+    private static void removeDirectory(String path) {
+        Map<String, WatchKey> dirs = new TreeMap<>(KEYS.subMap(path + "/", path + "0"));
+        if (KEYS.containsKey(path)) {
+            dirs.put(path, KEYS.get(path));
+        }
+        for (Map.Entry<String, WatchKey> dir : dirs.entrySet()) {
+            dir.getValue().cancel();
+            DIRECTORIES.remove(dir.getValue());
+            KEYS.remove(dir.getKey());
+        }
+    }
+}